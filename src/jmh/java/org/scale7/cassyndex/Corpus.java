@@ -0,0 +1,87 @@
+package org.scale7.cassyndex;
+
+import java.util.Random;
+
+/**
+ * Generates realistic item text for benchmarks. The same seed always produces the same corpus, so results are
+ * comparable between runs.
+ */
+class Corpus {
+
+	static final String[] BLOCK_WORDS = { "the", "and", "of", "flat", "road", "street", "mr", "mrs", "dr" };
+
+	private static final String[] FIRST_NAMES = { "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael",
+		"Linda", "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah",
+		"Charles", "Karen", "Christopher", "Nancy", "Daniel", "Lisa", "Matthew", "Margaret", "Anthony", "Betty", "Mark",
+		"Sandra", "Mohammed", "Aisha", "Wei", "Yuki", "Olumide", "Siobhan", "Zoë", "José", "Łukasz", "Anne-Marie" };
+
+	private static final String[] LAST_NAMES = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+		"Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Taylor", "Thomas",
+		"Moore", "Jackson", "Martin", "Lee", "Thompson", "White", "Harris", "Clark", "Lewis", "Robinson", "Walker",
+		"O'Brien", "O'Neill", "McDonald", "Fitzgerald", "Nguyen", "Kowalski", "Müller", "Smith-Jones", "van der Berg" };
+
+	private static final String[] TITLES = { "Mr", "Mrs", "Ms", "Dr", "Prof", "" };
+
+	private static final String[] STREET_NAMES = { "Acacia", "Church", "High", "Station", "Victoria", "Green", "Park",
+		"Manor", "Kings", "Queens", "Grange", "Mill", "New", "School", "North", "South", "Chestnut", "Willow", "Oak",
+		"Elm", "Windsor", "Albert", "George", "York", "Springfield", "Meadow", "Orchard", "St. John's", "Bridge" };
+
+	private static final String[] STREET_TYPES = { "Road", "Street", "Avenue", "Lane", "Close", "Drive", "Way",
+		"Gardens", "Crescent", "Terrace", "Place", "Court" };
+
+	private static final String[] TOWNS = { "London", "Manchester", "Birmingham", "Leeds", "Glasgow", "Sheffield",
+		"Bradford", "Liverpool", "Edinburgh", "Bristol", "Cardiff", "Leicester", "Coventry", "Nottingham", "Hull",
+		"Newcastle upon Tyne", "Stoke-on-Trent", "Southampton", "Derby", "Portsmouth", "Brighton", "Harrogate" };
+
+	private final Random random;
+
+	Corpus(long seed) {
+		random = new Random(seed);
+	}
+
+	String nextName() {
+		String title = pick(TITLES);
+		String name = pick(FIRST_NAMES) + " " + (random.nextInt(4) == 0 ? pick(FIRST_NAMES) + " " : "") + pick(LAST_NAMES);
+		return title.length() > 0 ? title + ". " + name : name;
+	}
+
+	String nextAddress() {
+		StringBuilder address = new StringBuilder(80);
+		if (random.nextInt(3) == 0)
+			address.append("Flat ").append(1 + random.nextInt(40)).append(", ");
+		address.append(1 + random.nextInt(300)).append(' ').append(pick(STREET_NAMES)).append(' ').append(pick(STREET_TYPES));
+		address.append(", ").append(pick(TOWNS)).append(", ").append(nextPostcode());
+		return address.toString();
+	}
+
+	/**
+	 * A contact record, as typically indexed: a name followed by an address.
+	 */
+	String nextContact() {
+		return nextName() + "\n" + nextAddress();
+	}
+
+	String[] nextContacts(int count) {
+		String[] contacts = new String[count];
+		for (int i=0; i<count; i++)
+			contacts[i] = nextContact();
+		return contacts;
+	}
+
+	/**
+	 * Item ids in the style of stringified type 1 UUIDs, which is what most indexes are keyed by.
+	 */
+	String nextItemId() {
+		return String.format("%08x-%04x-1%03x-%04x-%012x", random.nextInt(), random.nextInt(0x10000), random.nextInt(0x1000),
+			0x8000 | random.nextInt(0x4000), random.nextLong() & 0xFFFFFFFFFFFFL);
+	}
+
+	private String nextPostcode() {
+		return "" + (char)('A' + random.nextInt(26)) + (char)('A' + random.nextInt(26)) + (1 + random.nextInt(20)) + " "
+			+ random.nextInt(10) + (char)('A' + random.nextInt(26)) + (char)('A' + random.nextInt(26));
+	}
+
+	private String pick(String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+}
@@ -0,0 +1,78 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures paging through the keys of a prefix with in-memory storage standing in for Cassandra, so that the
+ * client side cost of slicing, merging bucket rows and decoding keys is measured without network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyIterationBenchmark {
+
+	@Param({ "1", "4" })
+	public int bucketCount;
+
+	@Param({ "100", "1000" })
+	public int pageSize;
+
+	@Param({ "false", "true" })
+	public boolean reversed;
+
+	private CaseInsKeyIndex index;
+
+	@Setup
+	public void setUp() throws Exception {
+		CaseInsKeyIndex.Config config = new CaseInsKeyIndex.Config("Benchmark", 2);
+		config.setBucketCount(bucketCount);
+		index = Cassyndex.createCisKeyOnlyIndex(new MemoryStorage(), config);
+		// Names sharing a bucket prefix, as iterated when completing a name being typed
+		Corpus corpus = new Corpus(1);
+		List<String> keys = new ArrayList<String>();
+		for (int i=0; i<100000; i++) {
+			keys.add("Ma" + corpus.nextName() + " " + i);
+			if (keys.size() == 1000) {
+				index.writeKeys(keys, ConsistencyLevel.ONE);
+				keys.clear();
+			}
+		}
+	}
+
+	@Benchmark
+	public void iteratePrefix(Blackhole blackhole) throws Exception {
+		IKeyIterator keys = index.getIterator("ma", reversed, pageSize, ConsistencyLevel.ONE);
+		while (keys.hasNext())
+			blackhole.consume(keys.next());
+	}
+
+	@Benchmark
+	public String[] firstPage() throws Exception {
+		IKeyIterator keys = index.getIterator("ma", reversed, pageSize, ConsistencyLevel.ONE);
+		try {
+			return keys.next();
+		} finally {
+			if (keys instanceof PrefetchingKeyIterator)
+				((PrefetchingKeyIterator)keys).close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scoring of search candidates. The pages of compound keys matching each search term are read from
+ * an in-memory index up front, so that scoreTermPages measures only the scoring loop of findItems and the
+ * selection of the top items, while findItems measures a whole search against in-memory storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int itemCount;
+
+	// A short prefix matching a large share of items, a common name and town, and a more selective search
+	@Param({ "ma", "smith london", "john smith acacia road" })
+	public String searchText;
+
+	private FullTextIndex index;
+	private String[] terms;
+	private List<List<String[]>> termPages;
+
+	@Setup
+	public void setUp() throws Exception {
+		FullTextIndex.Config config = new FullTextIndex.Config("Benchmark");
+		config.setBlockWords(Corpus.BLOCK_WORDS.clone());
+		index = Cassyndex.createFullTextIndex(new MemoryStorage(), config);
+		Corpus corpus = new Corpus(1);
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int i=0; i<itemCount; i++) {
+			items.put(corpus.nextItemId(), corpus.nextContact());
+			if (items.size() == 1000 || i == itemCount-1) {
+				index.addItems(items, ConsistencyLevel.ONE);
+				items.clear();
+			}
+		}
+
+		terms = index.getNormalizedSearchTermsFromText(searchText);
+		termPages = new ArrayList<List<String[]>>(terms.length);
+		for (String term : terms) {
+			List<String[]> pages = new ArrayList<String[]>();
+			if (index.termIndex.isValidKeyPrefix(term)) {
+				IKeyIterator tokens = index.termIndex.getIterator(term, false, config.matchTermPageSize, ConsistencyLevel.ONE);
+				while (tokens.hasNext())
+					pages.add(tokens.next());
+			}
+			termPages.add(pages);
+		}
+	}
+
+	@Benchmark
+	public String[] scoreTermPages() {
+		ItemScoreAccumulator matches = new ItemScoreAccumulator(terms.length, index.getRequiredWordTermHits(terms), index.getItemIdOrder());
+		for (int t=0; t<terms.length; t++)
+			for (String[] page : termPages.get(t))
+				index.scoreTermPage(terms[t], t, page, matches);
+		return matches.getTopItems(50);
+	}
+
+	@Benchmark
+	public String[] findItems() throws Exception {
+		return index.findItems(searchText, 50, ConsistencyLevel.ONE);
+	}
+}
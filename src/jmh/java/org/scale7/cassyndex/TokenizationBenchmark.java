@@ -0,0 +1,82 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the extraction of search terms from item text, which is paid on every item written or removed and on
+ * every search, and the normalization and block word checks applied to each word.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizationBenchmark {
+
+	private FullTextIndex index;
+	private String[] contacts;
+	private String[][] contactTerms;
+	private String[] words;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		FullTextIndex.Config config = new FullTextIndex.Config("Benchmark");
+		config.setBlockWords(Corpus.BLOCK_WORDS.clone());
+		index = Cassyndex.createFullTextIndex(new MemoryStorage(), config);
+		contacts = new Corpus(1).nextContacts(1000);
+		contactTerms = new String[contacts.length][];
+		for (int i=0; i<contacts.length; i++)
+			contactTerms[i] = index.getNormalizedSearchTermsFromText(contacts[i]);
+		List<String> allWords = new ArrayList<String>();
+		for (String contact : contacts)
+			for (String word : contact.split("[\\s,.]+"))
+				if (word.length() > 0)
+					allWords.add(word);
+		words = allWords.toArray(new String[allWords.size()]);
+	}
+
+	@Benchmark
+	public String[] getNormalizedSearchTermsFromText() {
+		next = (next + 1) % contacts.length;
+		return index.getNormalizedSearchTermsFromText(contacts[next]);
+	}
+
+	@Benchmark
+	public String normalizeWord() {
+		next = (next + 1) % words.length;
+		return FullTextIndex.normalizeWord(words[next]);
+	}
+
+	@Benchmark
+	public boolean isBlockWordPrefix() {
+		next = (next + 1) % words.length;
+		return ((FullTextIndex.Config)index.config).isBlockWordPrefix(words[next]);
+	}
+
+	/**
+	 * The block word check as applied while indexing, where every term extracted from an item is checked.
+	 */
+	@Benchmark
+	public void isBlockWordPrefixPerItem(Blackhole blackhole) {
+		next = (next + 1) % contactTerms.length;
+		FullTextIndex.Config config = (FullTextIndex.Config)index.config;
+		for (String term : contactTerms[next])
+			blackhole.consume(config.isBlockWordPrefix(term));
+	}
+}
@@ -0,0 +1,150 @@
+package org.scale7.cassyndex;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Asynchronous counterparts of the operations of a key index. Each operation runs on an executor and returns a
+ * future at once, so the caller's thread is not held while Cassandra is read or written. Futures can be chained
+ * with Futures.chain() so that a following operation starts when its input is ready, without a thread waiting
+ * in between. Failures are reported through the returned futures.
+ */
+public class AsyncKeyIndex {
+
+	private final IKeyIndex index;
+	private final ExecutorService executor;
+
+	/**
+	 * Create asynchronous operations for an index, run on the index's configured asynchronous executor.
+	 * @param index The index to operate on
+	 */
+	public AsyncKeyIndex(IKeyIndex index) {
+		this(index, index instanceof KeyIndexBase ? ((KeyIndexBase)index).getAsyncExecutor() : KeyIndexBase.getDefaultAsyncExecutor());
+	}
+
+	/**
+	 * @param index The index to operate on
+	 * @param executor The executor to run operations on, whose size bounds the number of operations in progress
+	 */
+	public AsyncKeyIndex(IKeyIndex index, ExecutorService executor) {
+		this.index = index;
+		this.executor = executor;
+	}
+
+	public IKeyIndex getIndex() {
+		return index;
+	}
+
+	public ListenableFuture<Boolean> keyExists(final String key, final ConsistencyLevel cLevel) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return index.keyExists(key, cLevel);
+			}
+		});
+	}
+
+	public ListenableFuture<Set<String>> keysExist(final Collection<String> keys, final ConsistencyLevel cLevel) {
+		return submit(new Callable<Set<String>>() {
+			@Override
+			public Set<String> call() throws Exception {
+				return index.keysExist(keys, cLevel);
+			}
+		});
+	}
+
+	public ListenableFuture<Void> writeKey(final String key, final ConsistencyLevel cLevel) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				index.writeKey(key, cLevel);
+				return null;
+			}
+		});
+	}
+
+	public ListenableFuture<Void> deleteKey(final String key, final ConsistencyLevel cLevel) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				index.deleteKey(key, cLevel);
+				return null;
+			}
+		});
+	}
+
+	public ListenableFuture<Void> writeKeys(final Collection<String> keys, final ConsistencyLevel cLevel) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				index.writeKeys(keys, cLevel);
+				return null;
+			}
+		});
+	}
+
+	public ListenableFuture<Void> deleteKeys(final Collection<String> keys, final ConsistencyLevel cLevel) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				index.deleteKeys(keys, cLevel);
+				return null;
+			}
+		});
+	}
+
+	public ListenableFuture<String[]> getPage(final String requiredPrefix, final String startKey, final boolean includeStartKey, final boolean reversed, final int maxPageSize, final ConsistencyLevel cLevel) {
+		return submit(new Callable<String[]>() {
+			@Override
+			public String[] call() throws Exception {
+				return index.getPage(requiredPrefix, startKey, includeStartKey, reversed, maxPageSize, cLevel);
+			}
+		});
+	}
+
+	public ListenableFuture<KeyPage> getKeyPage(final String requiredPrefix, final String startKey, final boolean includeStartKey, final boolean reversed, final int maxPageSize, final ConsistencyLevel cLevel) {
+		return submit(new Callable<KeyPage>() {
+			@Override
+			public KeyPage call() throws Exception {
+				return index.getKeyPage(requiredPrefix, startKey, includeStartKey, reversed, maxPageSize, cLevel);
+			}
+		});
+	}
+
+	public ListenableFuture<KeyPage> getNextPage(final String cursor, final int maxPageSize, final ConsistencyLevel cLevel) {
+		return submit(new Callable<KeyPage>() {
+			@Override
+			public KeyPage call() throws Exception {
+				return index.getNextPage(cursor, maxPageSize, cLevel);
+			}
+		});
+	}
+
+	/**
+	 * Read the next page of an iterator. An iterator must not be advanced again until the previous page
+	 * has been returned.
+	 * @param iterator An iterator obtained from the index
+	 * @return A future completed with the next page, or with null if the iterator has no more keys
+	 */
+	public ListenableFuture<String[]> next(final IKeyIterator iterator) {
+		return submit(new Callable<String[]>() {
+			@Override
+			public String[] call() throws Exception {
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+		});
+	}
+
+	private <T> ListenableFuture<T> submit(Callable<T> operation) {
+		ListenableFutureTask<T> task = new ListenableFutureTask<T>(operation);
+		executor.execute(task);
+		return task;
+	}
+}
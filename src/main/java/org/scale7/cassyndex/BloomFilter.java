@@ -0,0 +1,93 @@
+package org.scale7.cassyndex;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe Bloom filter over strings. Answers whether a string might have been added, with no false
+ * negatives and a false positive rate determined by the number of strings added relative to the expected
+ * number the filter was sized for.
+ */
+class BloomFilter {
+
+	private final AtomicLongArray bits;
+	private final long bitCount;
+	private final int hashCount;
+
+	/**
+	 * @param expectedCount The number of strings expected to be added
+	 * @param falsePositiveRate The desired false positive rate once the expected number of strings has been added
+	 */
+	BloomFilter(long expectedCount, double falsePositiveRate) {
+		expectedCount = Math.max(1, expectedCount);
+		long optimalBitCount = (long)Math.ceil(-expectedCount * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		// Bit indexes are derived from non-negative ints, so there is no use for more than 2^31 bits
+		int wordCount = (int)Math.min(1 << 25, Math.max(1, (optimalBitCount + 63) / 64));
+		bits = new AtomicLongArray(wordCount);
+		bitCount = (long)wordCount * 64;
+		hashCount = Math.max(1, (int)Math.round((double)bitCount / expectedCount * Math.log(2)));
+	}
+
+	void add(String value) {
+		long hash = hash(value);
+		int hash1 = (int)hash;
+		int hash2 = (int)(hash >>> 32);
+		for (int i=1; i<=hashCount; i++) {
+			long bitIdx = getBitIdx(hash1 + i * hash2);
+			int wordIdx = (int)(bitIdx >>> 6);
+			long mask = 1L << bitIdx;
+			long word;
+			do {
+				word = bits.get(wordIdx);
+				if ((word & mask) != 0)
+					break;
+			} while (!bits.compareAndSet(wordIdx, word, word | mask));
+		}
+	}
+
+	boolean mightContain(String value) {
+		long hash = hash(value);
+		int hash1 = (int)hash;
+		int hash2 = (int)(hash >>> 32);
+		for (int i=1; i<=hashCount; i++) {
+			long bitIdx = getBitIdx(hash1 + i * hash2);
+			if ((bits.get((int)(bitIdx >>> 6)) & (1L << bitIdx)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	long getSizeBytes() {
+		return (long)bits.length() * 8;
+	}
+
+	/**
+	 * Estimate the current false positive rate from the proportion of bits that are set.
+	 */
+	double getFalsePositiveRate() {
+		long setBitCount = 0;
+		for (int i=0; i<bits.length(); i++)
+			setBitCount += Long.bitCount(bits.get(i));
+		return Math.pow((double)setBitCount / bitCount, hashCount);
+	}
+
+	private long getBitIdx(int combinedHash) {
+		if (combinedHash < 0)
+			combinedHash = ~combinedHash;
+		return combinedHash % bitCount;
+	}
+
+	// 64 bit FNV-1a over the characters of the value, finished with the MurmurHash3 mixer
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i=0; i<value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
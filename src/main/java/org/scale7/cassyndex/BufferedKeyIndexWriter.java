@@ -0,0 +1,261 @@
+package org.scale7.cassyndex;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.scale7.cassyndex.KeyIndexBase.BatchMutator;
+import org.scale7.portability.SystemProxy;
+import org.slf4j.Logger;
+
+/**
+ * Buffers key writes and deletes for a key index and applies them in batches. Mutations are held by bucket row
+ * and column, so that when a key is written or deleted again before being flushed, only the last mutation is
+ * applied. Buffered mutations are flushed in the background once enough have accumulated or a time limit has
+ * passed, and when a caller calls flush(). Mutations are not visible to readers until they have been flushed, so
+ * callers that must read their own writes should flush first.
+ *
+ * The number of keys held, counting those being flushed, is bounded. A caller that finds no room flushes the
+ * buffer on its own thread, waiting for any flush already in progress first, so writers are slowed to the rate at
+ * which Cassandra accepts writes. Callers that find room return at once, without waiting for flushes. If the
+ * flush made to find room fails, the write or delete throws and the key is not buffered; a call that returns
+ * normally has always buffered its key.
+ */
+public class BufferedKeyIndexWriter {
+
+	final Logger logger = SystemProxy.getLoggerFromFactory(BufferedKeyIndexWriter.class);
+
+	public static class Config {
+
+		protected int maxBufferedKeys = 10000;
+		protected int flushBatchSize = 500;
+		protected long flushIntervalMillis = 1000;
+
+		/**
+		 * Set the maximum number of keys that may be held, counting those being flushed. A caller that finds
+		 * no room flushes the buffer before buffering its key.
+		 * @param maxBufferedKeys
+		 */
+		public void setMaxBufferedKeys(int maxBufferedKeys) {
+			if (maxBufferedKeys < 1)
+				throw new IllegalArgumentException("The maximum number of buffered keys must be at least 1");
+			this.maxBufferedKeys = maxBufferedKeys;
+		}
+
+		/**
+		 * Set the number of buffered keys at which a background flush is started.
+		 * @param flushBatchSize
+		 */
+		public void setFlushBatchSize(int flushBatchSize) {
+			if (flushBatchSize < 1)
+				throw new IllegalArgumentException("The flush batch size must be at least 1");
+			this.flushBatchSize = flushBatchSize;
+		}
+
+		/**
+		 * Set the longest time a mutation may be buffered before it is flushed in the background.
+		 * @param flushIntervalMillis
+		 */
+		public void setFlushIntervalMillis(long flushIntervalMillis) {
+			if (flushIntervalMillis < 1)
+				throw new IllegalArgumentException("The flush interval must be at least 1 millisecond");
+			this.flushIntervalMillis = flushIntervalMillis;
+		}
+	}
+
+	private final PlainKeyIndexBase index;
+	private final Config config;
+	private final ConsistencyLevel cLevel;
+	private final Object flushLock = new Object();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final ScheduledExecutorService flusher;
+	private Map<String, Map<String, Mutation>> buffer = new HashMap<String, Map<String, Mutation>>(); // row key -> column name -> mutation
+	private int bufferedCount = 0;
+	private int flushingCount = 0; // the keys taken from the buffer by the flush in progress
+	private boolean closed = false;
+
+	public BufferedKeyIndexWriter(PlainKeyIndexBase index, Config config, ConsistencyLevel cLevel) {
+		this.index = index;
+		this.config = config;
+		this.cLevel = cLevel;
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cassyndex-writer-" + BufferedKeyIndexWriter.this.index.config.idxColumnFamily);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				backgroundFlush();
+			}
+		}, config.flushIntervalMillis, config.flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void writeKey(String key) throws Exception {
+		buffer(key, false);
+	}
+
+	public void deleteKey(String key) throws Exception {
+		buffer(key, true);
+	}
+
+	public void writeKeys(Collection<String> keys) throws Exception {
+		for (String key : keys)
+			buffer(key, false);
+	}
+
+	public void deleteKeys(Collection<String> keys) throws Exception {
+		for (String key : keys)
+			buffer(key, true);
+	}
+
+	/**
+	 * @return The number of keys waiting to be flushed, not counting any being flushed
+	 */
+	public synchronized int getBufferedKeyCount() {
+		return bufferedCount;
+	}
+
+	/**
+	 * Apply all buffered mutations, returning once they have been written. If the write fails, the mutations
+	 * are buffered again, unless they have since been superseded.
+	 * @throws Exception
+	 */
+	public void flush() throws Exception {
+		// Flushes are serialized, so that mutations of the same column are applied in the order they were made
+		synchronized (flushLock) {
+			Map<String, Map<String, Mutation>> toFlush;
+			synchronized (this) {
+				if (bufferedCount == 0)
+					return;
+				toFlush = buffer;
+				buffer = new HashMap<String, Map<String, Mutation>>();
+				// The keys being flushed still count against the limit until they have been written
+				flushingCount = bufferedCount;
+				bufferedCount = 0;
+			}
+			try {
+				BatchMutator batch = index.new BatchMutator(cLevel);
+				for (Map<String, Mutation> row : toFlush.values()) {
+					for (Mutation mutation : row.values()) {
+						if (mutation.delete)
+							index.addKeyDeletion(batch, mutation.key);
+						else
+							index.addKeyWrite(batch, mutation.key);
+					}
+				}
+				batch.flush();
+				synchronized (this) {
+					flushingCount = 0;
+					notifyAll();
+				}
+			} catch (Exception ex) {
+				rebuffer(toFlush);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Flush the buffered mutations and stop flushing in the background. Keys cannot be written once the
+	 * writer is closed.
+	 * @throws Exception
+	 */
+	public void close() throws Exception {
+		synchronized (this) {
+			closed = true;
+		}
+		flusher.shutdown();
+		flush();
+	}
+
+	private void buffer(String key, boolean delete) throws Exception {
+		index.VALIDATE(key);
+		String colName = index.getColNameForKey(key);
+		String rowKey = index.getKeyRowKey(colName);
+		// Keys are only buffered once there is room for them, so a failed flush leaves the key unbuffered
+		while (!tryBuffer(rowKey, colName, new Mutation(key, delete)))
+			flush();
+		if (getBufferedKeyCount() >= config.flushBatchSize && flushScheduled.compareAndSet(false, true))
+			flusher.execute(new Runnable() {
+				@Override
+				public void run() {
+					flushScheduled.set(false);
+					backgroundFlush();
+				}
+			});
+	}
+
+	/**
+	 * Buffer a mutation if there is room for it, or if it replaces a buffered mutation of the same column.
+	 * @return Whether the mutation was buffered
+	 */
+	private synchronized boolean tryBuffer(String rowKey, String colName, Mutation mutation) throws InterruptedException {
+		if (closed)
+			throw new IllegalStateException("The writer has been closed");
+		Map<String, Mutation> row = buffer.get(rowKey);
+		if (row != null && row.containsKey(colName)) {
+			row.put(colName, mutation);
+			return true;
+		}
+		if (bufferedCount + flushingCount >= config.maxBufferedKeys) {
+			// Only the keys being flushed are holding the room, so wait for their flush to finish
+			if (bufferedCount == 0)
+				wait();
+			return false;
+		}
+		if (row == null) {
+			row = new LinkedHashMap<String, Mutation>();
+			buffer.put(rowKey, row);
+		}
+		row.put(colName, mutation);
+		bufferedCount++;
+		return true;
+	}
+
+	private void backgroundFlush() {
+		try {
+			flush();
+		} catch (Exception ex) {
+			logger.warn("Failed to flush buffered keys for index: " + index.config.idxColumnFamily + ", will retry", ex);
+		}
+	}
+
+	private synchronized void rebuffer(Map<String, Map<String, Mutation>> failed) {
+		for (Map.Entry<String, Map<String, Mutation>> failedRow : failed.entrySet()) {
+			Map<String, Mutation> row = buffer.get(failedRow.getKey());
+			if (row == null) {
+				row = new LinkedHashMap<String, Mutation>();
+				buffer.put(failedRow.getKey(), row);
+			}
+			for (Map.Entry<String, Mutation> mutation : failedRow.getValue().entrySet()) {
+				if (!row.containsKey(mutation.getKey())) {
+					row.put(mutation.getKey(), mutation.getValue());
+					bufferedCount++;
+				}
+			}
+		}
+		// Mutations superseded while the flush was in progress are dropped, which frees their room
+		flushingCount = 0;
+		notifyAll();
+	}
+
+	private static class Mutation {
+		Mutation(String key, boolean delete) {
+			this.key = key;
+			this.delete = delete;
+		}
+		final String key;
+		final boolean delete;
+	}
+}
@@ -0,0 +1,202 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.scale7.cassyndex.FullTextIndex.ItemRecord;
+import org.scale7.cassyndex.FullTextIndex.ItemUpdate;
+import org.scale7.cassyndex.KeyIndexBase.BatchMutator;
+import org.scale7.portability.SystemProxy;
+import org.slf4j.Logger;
+
+/**
+ * Adds many items to a full text index at once. Work proceeds as a pipeline: chunks of items have their previous
+ * text read and are tokenized on the index executor, while the resulting mutations are flushed concurrently with a
+ * bounded number of batches in flight. Failures are recorded against the items concerned.
+ */
+class BulkIndexer {
+
+	final Logger logger = SystemProxy.getLoggerFromFactory(BulkIndexer.class);
+
+	private final FullTextIndex index;
+	private final IBulkIndexListener listener;
+	private final ConsistencyLevel cLevel;
+	private final Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+	private final AtomicInteger processedCount = new AtomicInteger();
+	private int totalCount;
+
+	BulkIndexer(FullTextIndex index, IBulkIndexListener listener, ConsistencyLevel cLevel) {
+		this.index = index;
+		this.listener = listener;
+		this.cLevel = cLevel;
+	}
+
+	Map<String, Exception> addItems(Map<String, String> items) throws Exception {
+		totalCount = items.size();
+
+		// Split the items into chunks that can each be read in one multiget
+		List<List<Map.Entry<String, String>>> chunks = new ArrayList<List<Map.Entry<String, String>>>();
+		List<Map.Entry<String, String>> chunk = null;
+		for (Map.Entry<String, String> item : items.entrySet()) {
+			try {
+				index.VALIDATE_ITEM_ID(item.getKey());
+			} catch (Exception ex) {
+				itemsFailed(item.getKey(), ex);
+				continue;
+			}
+			if (chunk == null || chunk.size() >= index.config.maxMultigetRows) {
+				chunk = new ArrayList<Map.Entry<String, String>>(index.config.maxMultigetRows);
+				chunks.add(chunk);
+			}
+			chunk.add(item);
+		}
+
+		ExecutorService executor = index.getExecutor();
+		int maxInFlightBatches = ((FullTextIndex.Config)index.config).maxInFlightBatches;
+		Semaphore inFlightBatches = new Semaphore(maxInFlightBatches);
+		LinkedList<Future<List<ItemUpdate>>> preparing = new LinkedList<Future<List<ItemUpdate>>>();
+		LinkedList<Future<?>> flushing = new LinkedList<Future<?>>();
+		int nextChunkIdx = 0;
+		int preparedChunkIdx = 0;
+		while (preparedChunkIdx < chunks.size()) {
+			// Keep a bounded number of chunks being read and tokenized ahead of the flushes
+			while (nextChunkIdx < chunks.size() && preparing.size() < maxInFlightBatches)
+				preparing.add(executor.submit(new PrepareChunk(chunks.get(nextChunkIdx++))));
+
+			List<ItemUpdate> updates;
+			try {
+				updates = preparing.removeFirst().get();
+			} catch (ExecutionException ex) {
+				Exception cause = ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex;
+				for (Map.Entry<String, String> item : chunks.get(preparedChunkIdx))
+					itemsFailed(item.getKey(), cause);
+				continue;
+			} finally {
+				chunks.set(preparedChunkIdx++, null);
+			}
+
+			// Group the updates into batches of at most the maximum batch size, starting a new batch before an item
+			// that would not fit, so that the batch mutator never splits an item across batches. An item with more
+			// mutations than the maximum batch size has to be split. If one of its batches fails, the postings of
+			// the earlier batches stay written, but its stored text is written last and is left as it was, so the
+			// item is reported as failed and adding it again repairs it
+			List<ItemUpdate> batch = new ArrayList<ItemUpdate>();
+			int batchMutationCount = 0;
+			for (ItemUpdate update : updates) {
+				int mutationCount = update.getMutationCount();
+				if (!batch.isEmpty() && batchMutationCount + mutationCount > index.config.maxBatchSize) {
+					flushing.add(submitFlush(executor, inFlightBatches, batch));
+					batch = new ArrayList<ItemUpdate>();
+					batchMutationCount = 0;
+				}
+				batch.add(update);
+				batchMutationCount += mutationCount;
+				if (batchMutationCount >= index.config.maxBatchSize) {
+					flushing.add(submitFlush(executor, inFlightBatches, batch));
+					batch = new ArrayList<ItemUpdate>();
+					batchMutationCount = 0;
+				}
+			}
+			if (!batch.isEmpty())
+				flushing.add(submitFlush(executor, inFlightBatches, batch));
+
+			Iterator<Future<?>> i = flushing.iterator();
+			while (i.hasNext())
+				if (i.next().isDone())
+					i.remove();
+		}
+
+		// Wait for the remaining batches. Flushes record their own failures, so only an interruption can surface here
+		for (Future<?> flush : flushing)
+			flush.get();
+
+		return failures;
+	}
+
+	private Future<?> submitFlush(ExecutorService executor, final Semaphore inFlightBatches, final List<ItemUpdate> batch) throws InterruptedException {
+		inFlightBatches.acquire();
+		try {
+			return executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flush(batch);
+					} finally {
+						inFlightBatches.release();
+					}
+				}
+			});
+		} catch (RuntimeException ex) {
+			inFlightBatches.release();
+			throw ex;
+		}
+	}
+
+	private void flush(List<ItemUpdate> batch) {
+		try {
+			BatchMutator mutator = index.new BatchMutator(cLevel);
+			for (ItemUpdate update : batch)
+				index.addItemUpdate(mutator, update);
+			mutator.flush();
+			itemsProcessed(batch.size());
+		} catch (Exception batchEx) {
+			// Retry the items individually so that only the items that genuinely fail are reported
+			logger.warn("Bulk index batch failed, retrying " + batch.size() + " items individually", batchEx);
+			for (ItemUpdate update : batch) {
+				try {
+					BatchMutator mutator = index.new BatchMutator(cLevel);
+					index.addItemUpdate(mutator, update);
+					mutator.flush();
+					itemsProcessed(1);
+				} catch (Exception ex) {
+					itemsFailed(update.itemId, ex);
+				}
+			}
+		}
+	}
+
+	private void itemsProcessed(int count) {
+		int processed = processedCount.addAndGet(count);
+		if (listener != null)
+			listener.itemsProcessed(processed, totalCount);
+	}
+
+	private void itemsFailed(String itemId, Exception ex) {
+		failures.put(itemId, ex);
+		if (listener != null)
+			listener.itemFailed(itemId, ex);
+		itemsProcessed(1);
+	}
+
+	private class PrepareChunk implements Callable<List<ItemUpdate>> {
+
+		private final List<Map.Entry<String, String>> chunk;
+
+		PrepareChunk(List<Map.Entry<String, String>> chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		public List<ItemUpdate> call() throws Exception {
+			List<String> itemIds = new ArrayList<String>(chunk.size());
+			for (Map.Entry<String, String> item : chunk)
+				itemIds.add(item.getKey());
+			Map<String, ItemRecord> previousRecords = index.getItemRecords(itemIds, true, ConsistencyLevel.QUORUM);
+			List<ItemUpdate> updates = new ArrayList<ItemUpdate>(chunk.size());
+			for (Map.Entry<String, String> item : chunk)
+				updates.add(index.prepareItemUpdate(item.getKey(), item.getValue(), previousRecords.get(item.getKey())));
+			return updates;
+		}
+	}
+}
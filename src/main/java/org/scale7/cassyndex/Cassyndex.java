@@ -13,4 +13,16 @@ public class Cassyndex {
 	public static FullTextIndex createFullTextIndex(String pelopsPool, FullTextIndex.Config config) {
 		return new FullTextIndex(pelopsPool, config);
 	}
+
+	public static CaseSenKeyIndex createCsKeyOnlyIndex(IIndexStorage storage, KeyIndexBase.Config config) {
+		return new CaseSenKeyIndex(storage, config);
+	}
+
+	public static CaseInsKeyIndex createCisKeyOnlyIndex(IIndexStorage storage, CaseInsKeyIndex.Config config) {
+		return new CaseInsKeyIndex(storage, config);
+	}
+
+	public static FullTextIndex createFullTextIndex(IIndexStorage storage, FullTextIndex.Config config) {
+		return new FullTextIndex(storage, config);
+	}
 }
@@ -5,22 +5,28 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.cassandra.thrift.Column;
 import org.apache.cassandra.thrift.ConsistencyLevel;
-import org.scale7.cassandra.pelops.Mutator;
-import org.scale7.cassandra.pelops.Pelops;
-import org.scale7.cassandra.pelops.RowDeletor;
-import org.scale7.cassandra.pelops.Selector;
-import org.scale7.cassandra.pelops.exceptions.NotFoundException;
 import org.scale7.portability.SystemProxy;
 import org.slf4j.Logger;
 
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Splitter;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class FullTextIndex extends KeyIndexBase {
 
@@ -29,17 +35,31 @@ public class FullTextIndex extends KeyIndexBase {
 	protected boolean initialized = false;
 	protected CaseInsKeyIndex termIndex;
 
+	private static final ThreadLocal<Tokenizer> tokenizers = new ThreadLocal<Tokenizer>() {
+		@Override
+		protected Tokenizer initialValue() {
+			return new Tokenizer();
+		}
+	};
+
 	//protected final static String META_DATA_ROW_KEY_ID = "__Meta";
 	//protected final static String META_INIT_MARKER_COLUMN_ID = "Initialized";
 	//protected final static String META_BLOCK_WORDS_COLUMN_ID = "BlockWords";
 	protected final static String ENTRY_META_DATA_KEY_PREFIX = "___";
 	protected final static String ENTRY_META_ORIGINAL_TEXT_COL_ID = "OriginalText";
+	protected final static byte[] ENTRY_META_ORIGINAL_TEXT_COL_NAME = ENTRY_META_ORIGINAL_TEXT_COL_ID.getBytes(UTF8);
+	protected final static String ENTRY_META_TERMS_COL_ID = "Terms";
+	protected final static byte[] ENTRY_META_TERMS_COL_NAME = ENTRY_META_TERMS_COL_ID.getBytes(UTF8);
 	protected final static char TERM_TO_ENTRYID_SEPARATOR = (char)(Character.MAX_VALUE-1); // needs to be 1 less than max so appear in key prefix results
 
 	public static class Config extends KeyIndexBase.Config {
 
 		protected String[] blockWords;
 		protected int matchTermPageSize = 2000;
+		protected int maxInFlightBatches = 4;
+		protected boolean storeTermLists = false;
+		protected int maxPlannedCandidates = 0;
+		protected boolean binaryPostings = false;
 
 		public Config(String idxColumnFamily) {
 			this(idxColumnFamily, 2);
@@ -64,13 +84,20 @@ public class FullTextIndex extends KeyIndexBase {
 			Arrays.sort(this.blockWords);
 		}
 
+		/**
+		 * Check whether a word is a prefix of any block word. The block words are held sorted, so the block words
+		 * a word is a prefix of directly follow the point where the word would be inserted, and only that one block
+		 * word needs checking. Normalizing a word that is already normalized does not allocate.
+		 */
 		protected boolean isBlockWordPrefix(String word) {
-			if (blockWords != null)
-				for (String blockWord : blockWords) {
-					if (blockWord.startsWith(normalizeWord(word)))
-						return true;
-				}
-			return false;
+			if (blockWords == null || blockWords.length == 0)
+				return false;
+			String normalized = normalizeWord(word);
+			int idx = Arrays.binarySearch(blockWords, normalized);
+			if (idx >= 0)
+				return true;
+			int insertionIdx = -idx - 1;
+			return insertionIdx < blockWords.length && blockWords[insertionIdx].startsWith(normalized);
 		}
 
 		/**
@@ -84,14 +111,73 @@ public class FullTextIndex extends KeyIndexBase {
 		public void setMatchTermPageSize(int matchTermPageSize) {
 			this.matchTermPageSize = matchTermPageSize;
 		}
+
+		/**
+		 * Set the maximum number of batches a bulk indexing operation may have in flight at once. Each batch
+		 * in flight is executed over its own pooled connection, so this bounds both the concurrency of bulk
+		 * writes and the memory held by pending batches.
+		 * @param maxInFlightBatches
+		 */
+		public void setMaxInFlightBatches(int maxInFlightBatches) {
+			if (maxInFlightBatches < 1)
+				throw new IllegalArgumentException("The maximum number of in flight batches must be at least 1");
+			this.maxInFlightBatches = maxInFlightBatches;
+		}
+
+		/**
+		 * Store the list of terms each item is indexed under in the item's meta data row. Items are then updated
+		 * and removed using the stored list rather than by tokenizing their original text again, which saves CPU
+		 * and guarantees that every entry written is later deleted, even if the tokenizer or block words change.
+		 * Items written before the option was enabled are tokenized as before, and gain a list when next updated.
+		 * If the option is disabled again, lists are deleted as items are updated.
+		 * @param storeTermLists
+		 */
+		public void setStoreTermLists(boolean storeTermLists) {
+			this.storeTermLists = storeTermLists;
+		}
+
+		/**
+		 * Plan searches of several terms around their selectivity. Before scanning, the keys matching each term
+		 * are counted up to the given limit. If a single word term matches no more items than the limit, and
+		 * fewer than some other term, only that term is scanned. Its items are then checked against the other
+		 * terms by reading their stored term lists, or their original text where no list is stored, so common
+		 * terms are never scanned. Results are scored exactly as when every term is scanned. Reading an item
+		 * costs more than reading a key, so the limit should be small relative to the number of keys common
+		 * terms match. A limit of 0, the default, disables planning.
+		 * @param maxPlannedCandidates The maximum number of items a search may be driven from
+		 */
+		public void setMaxPlannedCandidates(int maxPlannedCandidates) {
+			if (maxPlannedCandidates < 0)
+				throw new IllegalArgumentException("The maximum number of planned candidates cannot be negative");
+			this.maxPlannedCandidates = maxPlannedCandidates;
+		}
+
+		/**
+		 * Store the postings that map terms to items as compact binary column names rather than strings. The item
+		 * id of a posting is held as 16 bytes where it is a UUID in canonical lower case form, rather than as 36
+		 * characters, and postings are scored straight from their bytes when searching. This can only be chosen
+		 * when an index is created, and needs a column family using the BytesType comparator, since binary
+		 * postings are not valid UTF-8. An existing index must be rebuilt into a new column family to change it.
+		 * Items of equal match strength are returned in item id order in both formats, except that with binary
+		 * postings ids in UUID form order after all other ids.
+		 * @param binaryPostings
+		 */
+		public void setBinaryPostings(boolean binaryPostings) {
+			this.binaryPostings = binaryPostings;
+		}
 	}
 
 	protected FullTextIndex(String pelopsPool, Config config) {
-		super(pelopsPool, config);
+		this(new PelopsStorage(pelopsPool), config);
+	}
+
+	protected FullTextIndex(IIndexStorage storage, Config config) {
+		super(storage, config);
 
 		CaseInsKeyIndex.Config cisConfig = new CaseInsKeyIndex.Config(config.idxColumnFamily, config.bucketKeyPrefixLen);
+		cisConfig.copyIndexSettingsFrom(config);
 		cisConfig.setFullCaseKeys(false);
-		termIndex = new CaseInsKeyIndex(pelopsPool, cisConfig);
+		termIndex = new CaseInsKeyIndex(storage, cisConfig);
 
 		/*
 		List<Column> columns;
@@ -120,164 +206,723 @@ public class FullTextIndex extends KeyIndexBase {
 	}
 
 	public void addItem(String itemId, String itemText, ConsistencyLevel cLevel) throws Exception {
-		VALIDATE_ITEM_ID(itemId);
+		long startedAt = operationStarted();
+		try {
+			VALIDATE_ITEM_ID(itemId);
 
-		// Clean out existing item before writing new words, otherwise create superset
-		removeItem(itemId, itemText, cLevel);
+			// Work out which terms differ from those of the existing item text. Terms no longer present must be
+			// deleted, otherwise the item is indexed under a superset of its terms
+			ItemRecord previous = getItemRecords(Collections.singletonList(itemId), true, ConsistencyLevel.QUORUM).get(itemId);
+			ItemUpdate update = prepareItemUpdate(itemId, itemText, previous);
 
-		// Store original copy of item text. We need this to remove the item later, and also to be able upgrade
-		// the indexing algorithm
-		Mutator mutator = Pelops.createMutator(pelopsPool);
-		mutator.writeColumn(config.idxColumnFamily, getOriginalItemRecordId(itemId), mutator.newColumn(ENTRY_META_ORIGINAL_TEXT_COL_ID, itemText));
-		mutator.execute(cLevel);
+			// The changed reverse index entries and the original text are sent together in as few batches as possible
+			BatchMutator batch = new BatchMutator(cLevel);
+			addItemUpdate(batch, update);
+			batch.flush();
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.ADD_ITEM, startedAt);
+		}
+	}
 
-		// Add reverse index lookup entries
-		String[] terms = getNormalizedSearchTermsFromText(itemText);
-		for (String term : terms) {
-			// Ignore block words
-			if (((Config)config).isBlockWordPrefix(term))
-				continue;
-			// Write compound key
-			String key = createWordToItemIdCompoundKey(term, itemId);
-			termIndex.writeKey(key, cLevel);
+	/**
+	 * Add many items to the index. Items are tokenized on the index executor, the previous text of each chunk
+	 * of items is read in a single multiget, and the resulting mutations are pipelined over several connections
+	 * with a bounded number of batches in flight. A failure only affects the items concerned, and does not
+	 * abort the operation.
+	 * @param items The items to add, mapping item ids to item text
+	 * @param cLevel
+	 * @return The items that could not be added, mapping item ids to the failure encountered
+	 * @throws Exception
+	 */
+	public Map<String, Exception> addItems(Map<String, String> items, ConsistencyLevel cLevel) throws Exception {
+		return addItems(items, null, cLevel);
+	}
+
+	public Map<String, Exception> addItems(Map<String, String> items, IBulkIndexListener listener, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			BulkIndexer bulkIndexer = new BulkIndexer(this, listener, cLevel);
+			return bulkIndexer.addItems(items);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.ADD_ITEMS, startedAt);
 		}
 	}
 
 	public void removeItem(String itemId, ConsistencyLevel cLevel) throws Exception {
-		removeItem(itemId, null, cLevel);
+		long startedAt = operationStarted();
+		try {
+			removeItem(itemId, null, cLevel);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.REMOVE_ITEM, startedAt);
+		}
 	}
 
 	protected void removeItem(String itemId, String unlessHasText, ConsistencyLevel cLevel) throws Exception {
 		VALIDATE_ITEM_ID(itemId);
 
 		// Load original text
-		Column column;
-		try {
-			column = selector.getColumnFromRow(config.idxColumnFamily, getOriginalItemRecordId(itemId), ENTRY_META_ORIGINAL_TEXT_COL_ID, ConsistencyLevel.QUORUM);
-		} catch (NotFoundException ex) {
+		ItemRecord record = getItemRecords(Collections.singletonList(itemId), true, ConsistencyLevel.QUORUM).get(itemId);
+		if (record == null)
 			// If does not exist, then vacuously succeed
 			return;
-		}
-		String itemText = Selector.getColumnStringValue(column);
 
 		// Check we need to remove this item
-		if (itemText.equals(unlessHasText))
+		if (record.text.equals(unlessHasText))
 			return;
 
-		// Remove reverse index lookup entries
-		String[] words = getNormalizedSearchTermsFromText(itemText);
+		// Remove reverse index lookup entries. The stored term list holds exactly the entries written
+		String[] words = record.terms != null ? record.terms : getNormalizedSearchTermsFromText(record.text);
+		BatchMutator batch = new BatchMutator(cLevel);
 		for (String word : words) {
 			// !!! Do not ignore block words. Cannot trust that a programmer didn't accidentally change list!
 
-			// Remove reverse entry lookup
-			String key = createWordToItemIdCompoundKey(word, itemId);
-			try {
-				termIndex.deleteKey(key, cLevel);
-			} catch (NotFoundException ex) {
-				// If does not exist, keep going anyway. We must make sure entries don't exist.
+			// Remove reverse entry lookup. Deleting entries that do not exist is harmless, and we must make sure entries don't exist.
+			addPostingDeletion(batch, word, itemId);
+		}
+
+		// Remove record of item. Row deletions are applied after the column mutations of a batch
+		String itemRowKey = getOriginalItemRecordId(itemId);
+		batch.nextMutation(itemRowKey).deleteRow(config.idxColumnFamily, itemRowKey);
+		batch.flush();
+	}
+
+	/**
+	 * Work out the mutations needed to replace the indexed text of an item. Only terms found in the previous text
+	 * but not the new text are deleted, and only terms found in the new text but not the previous text are written,
+	 * so a small edit to an item produces a small number of mutations.
+	 * @param itemId
+	 * @param itemText The new text of the item
+	 * @param previous The record currently stored for the item including its term list, or null if there is none
+	 * @return
+	 */
+	protected ItemUpdate prepareItemUpdate(String itemId, String itemText, ItemRecord previous) {
+		ItemUpdate update = new ItemUpdate(itemId, itemText);
+		boolean storeTermLists = ((Config)config).storeTermLists;
+		if (previous != null && itemText.equals(previous.text) && storeTermLists == (previous.terms != null)) {
+			update.textChanged = false;
+			return update;
+		}
+		Set<String> terms = getIndexedTerms(itemText);
+		Set<String> writtenTerms = new LinkedHashSet<String>();
+		if (previous != null) {
+			// !!! Without a stored term list, do not ignore block words when deleting. Cannot trust that a programmer
+			// didn't accidentally change list!
+			String[] previousTerms = previous.terms != null ? previous.terms : getNormalizedSearchTermsFromText(previous.text);
+			for (String term : previousTerms) {
+				if (!terms.contains(term))
+					update.staleTerms.add(term);
+				else
+					writtenTerms.add(term);
 			}
 		}
+		for (String term : terms)
+			if (!writtenTerms.contains(term))
+				update.newTerms.add(term);
+		if (storeTermLists)
+			update.termList = TermListCodec.encode(terms.toArray(new String[terms.size()]));
+		else
+			update.deleteTermList = previous != null && previous.terms != null;
+		return update;
+	}
+
+	/**
+	 * Work out the mutations needed to index an item again from its stored text, for instance after the block
+	 * words have changed. Unlike prepareItemUpdate(), every term of the text is written whether or not it is
+	 * believed to be indexed already, so missing entries are repaired. Stale entries are deleted for the terms in
+	 * the stored term list, or without one, for the terms the current tokenizer finds in the text.
+	 * @param itemId
+	 * @param record The record stored for the item
+	 * @return
+	 */
+	protected ItemUpdate prepareReindex(String itemId, ItemRecord record) {
+		ItemUpdate update = new ItemUpdate(itemId, record.text);
+		boolean storeTermLists = ((Config)config).storeTermLists;
+		Set<String> terms = getIndexedTerms(record.text);
+		String[] previousTerms = record.terms != null ? record.terms : getNormalizedSearchTermsFromText(record.text);
+		for (String term : previousTerms)
+			if (!terms.contains(term))
+				update.staleTerms.add(term);
+		for (String term : terms)
+			update.newTerms.add(term);
+		if (storeTermLists)
+			update.termList = TermListCodec.encode(terms.toArray(new String[terms.size()]));
+		else
+			update.deleteTermList = record.terms != null;
+		return update;
+	}
+
+	/**
+	 * Get the terms an item with the given text is indexed under.
+	 */
+	protected Set<String> getIndexedTerms(String itemText) {
+		Set<String> terms = new LinkedHashSet<String>();
+		for (String term : getNormalizedSearchTermsFromText(itemText)) {
+			// Ignore block words
+			if (!((Config)config).isBlockWordPrefix(term))
+				terms.add(term);
+		}
+		return terms;
+	}
+
+	protected void addItemUpdate(BatchMutator batch, ItemUpdate update) throws Exception {
+		if (!update.textChanged)
+			return;
+		for (String term : update.staleTerms)
+			addPostingDeletion(batch, term, update.itemId);
+		for (String term : update.newTerms)
+			addPostingWrite(batch, term, update.itemId);
+		// Store original copy of item text. We need this to remove the item later, and also to be able upgrade the
+		// indexing algorithm. It is written after the reverse index entries, since later updates are worked out
+		// against it, and so it must not be stored unless the entries it implies were written
+		String itemRowKey = getOriginalItemRecordId(update.itemId);
+		if (update.termList != null)
+			batch.nextMutation(itemRowKey).writeColumn(config.idxColumnFamily, itemRowKey, ENTRY_META_TERMS_COL_NAME, update.termList);
+		else if (update.deleteTermList)
+			batch.nextMutation(itemRowKey).deleteColumn(config.idxColumnFamily, itemRowKey, ENTRY_META_TERMS_COL_NAME);
+		batch.nextMutation(itemRowKey).writeColumn(config.idxColumnFamily, itemRowKey, ENTRY_META_ORIGINAL_TEXT_COL_NAME, update.itemText.getBytes(UTF8));
+	}
+
+	/**
+	 * Add the mutation writing the posting of an item under a term to a batch, in the configured format.
+	 */
+	protected void addPostingWrite(BatchMutator batch, String term, String itemId) throws Exception {
+		String key = createWordToItemIdCompoundKey(term, itemId);
+		if (((Config)config).binaryPostings)
+			termIndex.addColumnWrite(batch, termIndex.getColNameForKey(key), PostingCodec.encode(term, itemId));
+		else
+			termIndex.addKeyWrite(batch, key);
+	}
+
+	/**
+	 * Add the mutation deleting the posting of an item under a term to a batch, in the configured format.
+	 */
+	protected void addPostingDeletion(BatchMutator batch, String term, String itemId) throws Exception {
+		String key = createWordToItemIdCompoundKey(term, itemId);
+		if (((Config)config).binaryPostings)
+			termIndex.addColumnDeletion(batch, termIndex.getColNameForKey(key), PostingCodec.encode(term, itemId));
+		else
+			termIndex.addKeyDeletion(batch, key);
+	}
+
+	/**
+	 * Read the original text of a set of items using multiget requests. Large sets of items are split into
+	 * several requests of at most the configured maximum multiget rows, which are issued in parallel.
+	 * @return The original text of those items that exist, keyed by item id
+	 */
+	protected Map<String, String> getOriginalItemTexts(List<String> itemIds, ConsistencyLevel cLevel) throws Exception {
+		Map<String, ItemRecord> records = getItemRecords(itemIds, false, cLevel);
+		Map<String, String> result = new HashMap<String, String>(records.size() * 2);
+		for (Map.Entry<String, ItemRecord> record : records.entrySet())
+			result.put(record.getKey(), record.getValue().text);
+		return result;
+	}
+
+	/**
+	 * Read the stored records of a set of items using multiget requests, in the same way as getOriginalItemTexts().
+	 * @param withTermLists Whether to read stored term lists as well as the original text
+	 * @return The records of those items that exist, keyed by item id
+	 */
+	protected Map<String, ItemRecord> getItemRecords(List<String> itemIds, final boolean withTermLists, final ConsistencyLevel cLevel) throws Exception {
+		if (itemIds.size() <= config.maxMultigetRows)
+			return getItemRecordsChunk(itemIds, withTermLists, cLevel);
+
+		List<Future<Map<String, ItemRecord>>> chunks = new ArrayList<Future<Map<String, ItemRecord>>>();
+		for (int i=0; i<itemIds.size(); i+=config.maxMultigetRows) {
+			final List<String> chunk = itemIds.subList(i, Math.min(i + config.maxMultigetRows, itemIds.size()));
+			chunks.add(getExecutor().submit(new Callable<Map<String, ItemRecord>>() {
+				@Override
+				public Map<String, ItemRecord> call() throws Exception {
+					return getItemRecordsChunk(chunk, withTermLists, cLevel);
+				}
+			}));
+		}
+		Map<String, ItemRecord> result = new HashMap<String, ItemRecord>(itemIds.size() * 2);
+		for (Map<String, ItemRecord> chunkResult : getAll(chunks))
+			result.putAll(chunkResult);
+		return result;
+	}
 
-		// Remove record of item
-		RowDeletor rowDeletor = Pelops.createRowDeletor(pelopsPool);
-		rowDeletor.deleteRow(config.idxColumnFamily, getOriginalItemRecordId(itemId), cLevel);
+	private Map<String, ItemRecord> getItemRecordsChunk(List<String> itemIds, boolean withTermLists, ConsistencyLevel cLevel) throws Exception {
+		List<String> rowKeys = new ArrayList<String>(itemIds.size());
+		for (String itemId : itemIds)
+			rowKeys.add(getOriginalItemRecordId(itemId));
+		List<byte[]> colNames = withTermLists ? Arrays.asList(ENTRY_META_ORIGINAL_TEXT_COL_NAME, ENTRY_META_TERMS_COL_NAME) : Collections.singletonList(ENTRY_META_ORIGINAL_TEXT_COL_NAME);
+		Map<String, List<Column>> rows = storage.getNamedColumns(config.idxColumnFamily, rowKeys, colNames, cLevel);
+		Map<String, ItemRecord> result = new HashMap<String, ItemRecord>(itemIds.size() * 2);
+		for (String itemId : itemIds) {
+			List<Column> columns = rows.get(getOriginalItemRecordId(itemId));
+			ItemRecord record = columns != null ? decodeItemRecord(columns) : null;
+			if (record != null)
+				result.put(itemId, record);
+		}
+		return result;
+	}
+
+	/**
+	 * Decode the columns read from an item record row.
+	 * @return The record, or null if the row holds no original text
+	 */
+	protected static ItemRecord decodeItemRecord(List<Column> columns) {
+		String text = null;
+		String[] terms = null;
+		for (Column column : columns) {
+			if (Arrays.equals(column.getName(), ENTRY_META_ORIGINAL_TEXT_COL_NAME))
+				text = new String(column.getValue(), UTF8);
+			else if (Arrays.equals(column.getName(), ENTRY_META_TERMS_COL_NAME))
+				terms = TermListCodec.decode(column.getValue());
+		}
+		return text != null ? new ItemRecord(text, terms) : null;
 	}
 
 	public String[] findItems(String searchText, int maxResults, ConsistencyLevel cLevel) throws Exception {
-		// Extract search terms
-		String[] terms = getNormalizedSearchTermsFromText(searchText);
+		long startedAt = operationStarted();
+		try {
+			// Extract search terms
+			String[] terms = getNormalizedSearchTermsFromText(searchText);
 
-		// Count matches
-		HashMap<String, ItemMatchCount> matchStrengths = new HashMap<String, ItemMatchCount>();
-		LinkedList<ItemMatchCount> matchesList = new LinkedList<ItemMatchCount>();
-		for (int t=0; t<terms.length; t++) {
-			String term = terms[t];
-			if (termIndex.isValidKeyPrefix(term)) {
-				// Iterate through all matching word keys
-				IKeyIterator tokens = termIndex.getIterator(term, false, ((Config)config).matchTermPageSize, cLevel);
-				while (tokens.hasNext()) {
-					String[] tokenToIdKeys = tokens.next();
-					// Process word key page retrieved from Cassandra
-					for (String tokenToIdKey: tokenToIdKeys) {
-						// Split word key into word and term id components
-						int divider = tokenToIdKey.indexOf(TERM_TO_ENTRYID_SEPARATOR);
-						if (divider != -1) {
-							String token = tokenToIdKey.substring(0, divider);
-							String itemId = tokenToIdKey.substring(divider+1);
-							if (token.length() > 0 && itemId.length() > 0) {
-								// Get match count for item
-								ItemMatchCount imc = matchStrengths.get(itemId);
-								if (imc == null) {
-									imc = new ItemMatchCount(itemId);
-									matchStrengths.put(itemId, imc);
-									matchesList.add(imc);
-								}
-								// We only require/hit on single word search terms, not tuple terms
-								if (isOneWordSearchTerm(term)) {
-									// A term can only hit *once* e.g. mi against mike and michael does not equal two hits
-									if (imc.lastMatchingWordIdx != t) {
-										imc.wordTermHits++;
-										imc.lastMatchingWordIdx = t;
-										imc.lastMatchingWordStrength = getTermMatchStrength(token, term);
-										imc.totalMatchStrength += imc.lastMatchingWordStrength;
-									} else {
-										// we don't double count, but take the strongest match
-										int matchStrength = getTermMatchStrength(token, term);
-										if (matchStrength > imc.lastMatchingWordStrength) {
-											imc.totalMatchStrength -= imc.lastMatchingWordStrength;
-											imc.totalMatchStrength += matchStrength;
-											imc.lastMatchingWordStrength = matchStrength;
-										}
-									}
-								} else {
-									// A tuple can only match once as with a term
-									if (imc.lastMatchingTupleIdx != t) {
-										imc.lastMatchingTupleIdx = t;
-										imc.lastMatchingTupleStrength = getTupleTermMatchStrength(token, term);
-										imc.totalMatchStrength += imc.lastMatchingTupleStrength;
-									} else {
-										// we don't double count, but take the strongest match
-										int matchStrength = getTupleTermMatchStrength(token, term);
-										if (matchStrength > imc.lastMatchingTupleStrength) {
-											imc.totalMatchStrength -= imc.lastMatchingTupleStrength;
-											imc.totalMatchStrength += matchStrength;
-											imc.lastMatchingTupleStrength = matchStrength;
-										}
-									}
-								}
-							}
-						}
-					}
+			// Return ids of the strongest matching items that have matched all single word terms
+			ItemScoreAccumulator matches = new ItemScoreAccumulator(terms.length, getRequiredWordTermHits(terms), getItemIdOrder());
+			scoreItems(terms, matches, Integer.MAX_VALUE, cLevel);
+			return matches.getTopItems(maxResults);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.FIND_ITEMS, startedAt);
+		}
+	}
+
+	/**
+	 * Count the items matching a search, without building or ranking a list of their ids.
+	 * @param searchText The text to search for
+	 * @param cLevel
+	 * @return The number of items findItems() would return given no limit
+	 */
+	public int countItems(String searchText, ConsistencyLevel cLevel) throws Exception {
+		return countItems(searchText, Integer.MAX_VALUE, cLevel).getCount();
+	}
+
+	/**
+	 * Count the items matching a search, stopping once the count is known to reach a threshold. An item is known to
+	 * match once it has hit every single word term, so for searches that match many items, the term scans are
+	 * cancelled long before they complete.
+	 * @param searchText The text to search for
+	 * @param threshold The count at which to stop counting
+	 * @param cLevel
+	 * @return The number of matching items, or the threshold marked as a lower bound if at least that many match
+	 */
+	public ItemCount countItems(String searchText, int threshold, ConsistencyLevel cLevel) throws Exception {
+		if (threshold < 1)
+			throw new IllegalArgumentException("The count threshold must be at least 1");
+		long startedAt = operationStarted();
+		try {
+			String[] terms = getNormalizedSearchTermsFromText(searchText);
+			ItemScoreAccumulator matches = new ItemScoreAccumulator(terms.length, getRequiredWordTermHits(terms), getItemIdOrder());
+			scoreItems(terms, matches, threshold, cLevel);
+			int count = matches.getMatchingItemCount();
+			return count >= threshold ? new ItemCount(threshold, true) : new ItemCount(count, false);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.COUNT_ITEMS, startedAt);
+		}
+	}
+
+	/**
+	 * Record the matches of every item against the search terms.
+	 * @param stopAtMatchingCount Stop reading postings once this many items are known to match
+	 */
+	protected void scoreItems(final String[] terms, final ItemScoreAccumulator matches, final int stopAtMatchingCount, ConsistencyLevel cLevel) throws Exception {
+		// Count matches, either by scanning every term or by checking the items of the most selective term
+		final int[] termPageCounts = new int[2]; // pages, keys
+		String drivingTerm = chooseDrivingTerm(terms, cLevel);
+		if (drivingTerm != null) {
+			scoreCandidates(terms, drivingTerm, matches, stopAtMatchingCount, termPageCounts, cLevel);
+		} else {
+			scanTerms(terms, cLevel, new ITermPageHandler() {
+				@Override
+				public boolean processPage(int t, PostingPage page) {
+					termPageCounts[0]++;
+					termPageCounts[1] += page.size();
+					scorePostingPage(terms[t], t, page, matches);
+					return matches.getMatchingItemCount() < stopAtMatchingCount;
 				}
-			}
+			});
 		}
+		if (config.metrics != null)
+			config.metrics.searchCompleted(termPageCounts[0], termPageCounts[1], matches.getItemCount());
+	}
 
-		// Count single word terms in search text
+	/**
+	 * Get the number of single word terms in a search, all of which an item must hit to match.
+	 */
+	int getRequiredWordTermHits(String[] terms) {
 		int wordTermCount = 0;
 		for (String term : terms)
 			if (termIndex.isValidKeyPrefix(term) && isOneWordSearchTerm(term))
 				wordTermCount++;
+		return wordTermCount;
+	}
+
+	/**
+	 * Search the index, returning the matching items incrementally in rank order. Items are ranked as by
+	 * findItems(), but postings are only read until the rank of the items returned so far is certain, so callers
+	 * that stop after the first few items avoid reading the full posting ranges of common terms, and only the
+	 * items that might still rank are held in memory.
+	 * @param searchText The text to search for
+	 * @param cLevel
+	 * @return An iterator over pages of matching item ids, strongest match first
+	 */
+	public ISearchIterator searchIterator(String searchText, ConsistencyLevel cLevel) throws Exception {
+		return new SearchIterator(this, getNormalizedSearchTermsFromText(searchText), ((Config)config).matchTermPageSize, cLevel);
+	}
 
-		// Prune items from results that haven't matched all single word terms
-		Iterator<ItemMatchCount> i = matchesList.iterator();
-		while (i.hasNext()) {
-			ItemMatchCount imc = i.next();
-			if (imc.wordTermHits < wordTermCount)
-				i.remove();
+	/**
+	 * Score a page of compound keys retrieved for a search term, recording each match against its item.
+	 */
+	void scoreTermPage(String term, int termIdx, String[] tokenToIdKeys, ItemScoreAccumulator matches) {
+		// We only require/hit on single word search terms, not tuple terms
+		boolean isOneWordTerm = isOneWordSearchTerm(term);
+		// Process word key page retrieved from Cassandra
+		for (String tokenToIdKey: tokenToIdKeys) {
+			// Split word key into word and term id components. The token length is all that is needed to score a match
+			int divider = tokenToIdKey.indexOf(TERM_TO_ENTRYID_SEPARATOR);
+			if (divider > 0 && divider < tokenToIdKey.length()-1) {
+				int matchStrength = isOneWordTerm ? getTermMatchStrength(divider, term) : getTupleTermMatchStrength(divider, term);
+				matches.addMatch(tokenToIdKey, divider+1, termIdx, matchStrength, isOneWordTerm);
+			}
+		}
+	}
+
+	/**
+	 * Score a page of postings retrieved for a search term, in whichever format they are stored. Binary postings
+	 * are scored from their bytes, and their item ids are only decoded for the items returned.
+	 */
+	void scorePostingPage(String term, int termIdx, PostingPage page, ItemScoreAccumulator matches) {
+		if (page.keys != null) {
+			scoreTermPage(term, termIdx, page.keys, matches);
+			return;
+		}
+		boolean isOneWordTerm = isOneWordSearchTerm(term);
+		int termByteLength = term.getBytes(UTF8).length;
+		for (byte[] posting : page.postings) {
+			int tokenByteLength = PostingCodec.getTermLength(posting);
+			if (tokenByteLength > 0) {
+				// Only whether the token is the term itself decides the strength of the match
+				int tokenLength = tokenByteLength == termByteLength ? term.length() : term.length() + 1;
+				int matchStrength = isOneWordTerm ? getTermMatchStrength(tokenLength, term) : getTupleTermMatchStrength(tokenLength, term);
+				matches.addMatch(posting, tokenByteLength+1, termIdx, matchStrength, isOneWordTerm);
+			}
 		}
+	}
+
+	/**
+	 * Choose the single word term to drive a search from, if query planning is enabled. The keys matching each
+	 * distinct term are counted in parallel, up to just over the planned candidate limit.
+	 * @return The term matching fewest keys, if it is within the limit and some other term matches more keys,
+	 * otherwise null to scan every term
+	 */
+	protected String chooseDrivingTerm(String[] terms, final ConsistencyLevel cLevel) throws Exception {
+		final int maxCandidates = ((Config)config).maxPlannedCandidates;
+		if (maxCandidates == 0)
+			return null;
+		Set<String> distinctTerms = new LinkedHashSet<String>();
+		for (String term : terms)
+			if (termIndex.isValidKeyPrefix(term))
+				distinctTerms.add(term);
+		if (distinctTerms.size() < 2)
+			return null;
 
-		// Sort results
-		Collections.sort(matchesList, new DecreasingMatchStrength());
+		List<String> countedTerms = new ArrayList<String>(distinctTerms);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>(countedTerms.size());
+		for (final String term : countedTerms)
+			futures.add(getExecutor().submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return countPostings(term, maxCandidates + 1, cLevel);
+				}
+			}));
+		List<Integer> counts = getAll(futures);
 
-		// Return list of ids of matching items
-		int itemCount = 0;
-		List<String> results = new ArrayList<String>(matchesList.size());
-		for (ItemMatchCount imc : matchesList) {
-			if (++itemCount > maxResults)
-				break;
-			results.add(imc.itemId);
+		String drivingTerm = null;
+		int drivingCount = Integer.MAX_VALUE;
+		int maxCount = 0;
+		for (int i=0; i<countedTerms.size(); i++) {
+			int count = counts.get(i);
+			if (isOneWordSearchTerm(countedTerms.get(i)) && count < drivingCount) {
+				drivingTerm = countedTerms.get(i);
+				drivingCount = count;
+			}
+			maxCount = Math.max(maxCount, count);
+		}
+		if (drivingCount > maxCandidates || maxCount <= drivingCount)
+			return null;
+		return drivingTerm;
+	}
+
+	/**
+	 * Score the items matching a driving term against every search term, without scanning the other terms. Items
+	 * must hit every single word term to be returned, so no item outside those matching the driving term can be.
+	 * Each candidate item is scored from the terms it is indexed under, which are read from its stored term list,
+	 * or found by tokenizing its original text.
+	 * @param stopAtMatchingCount Stop reading candidates once this many items are known to match
+	 */
+	protected void scoreCandidates(String[] terms, String drivingTerm, ItemScoreAccumulator matches, int stopAtMatchingCount, int[] termPageCounts, ConsistencyLevel cLevel) throws Exception {
+		// Score the candidates a page at a time in key order, as a scan would first see them, so that reading can
+		// stop once enough items are known to match
+		Set<String> seen = new HashSet<String>();
+		PostingIterator postings = getPostingIterator(drivingTerm, PostingRange.ALL, ((Config)config).matchTermPageSize, cLevel);
+		try {
+			while (matches.getMatchingItemCount() < stopAtMatchingCount && postings.hasNext()) {
+				PostingPage page = postings.next();
+				termPageCounts[0]++;
+				termPageCounts[1] += page.size();
+				List<String> candidates = new ArrayList<String>(page.size());
+				for (int i=0; i<page.size(); i++) {
+					String itemId = page.getItemId(i);
+					if (itemId != null && seen.add(itemId))
+						candidates.add(itemId);
+				}
+				if (!candidates.isEmpty())
+					scoreCandidatePage(terms, candidates, matches, stopAtMatchingCount, cLevel);
+			}
+		} finally {
+			postings.close();
+		}
+	}
+
+	private void scoreCandidatePage(String[] terms, List<String> candidates, ItemScoreAccumulator matches, int stopAtMatchingCount, ConsistencyLevel cLevel) throws Exception {
+		// Where a limit is set, read the records a multiget at a time, so that no more are read than needed
+		int chunkSize = stopAtMatchingCount == Integer.MAX_VALUE ? candidates.size() : config.maxMultigetRows;
+		for (int c=0; c<candidates.size() && matches.getMatchingItemCount() < stopAtMatchingCount; c+=chunkSize) {
+			List<String> chunk = candidates.subList(c, Math.min(c + chunkSize, candidates.size()));
+			Map<String, ItemRecord> records = getItemRecords(chunk, true, cLevel);
+			for (String itemId : chunk) {
+				ItemRecord record = records.get(itemId);
+				if (record == null)
+					// Removed since its key was read
+					continue;
+				String[] itemTerms = record.terms;
+				if (itemTerms == null) {
+					Set<String> indexedTerms = getIndexedTerms(record.text);
+					itemTerms = indexedTerms.toArray(new String[indexedTerms.size()]);
+					Arrays.sort(itemTerms);
+				}
+				for (int t=0; t<terms.length; t++) {
+					if (!termIndex.isValidKeyPrefix(terms[t]))
+						continue;
+					int matchStrength = getItemMatchStrength(itemTerms, terms[t]);
+					if (matchStrength > 0)
+						matches.addMatch(itemId, 0, t, matchStrength, isOneWordSearchTerm(terms[t]));
+				}
+				if (matches.getMatchingItemCount() >= stopAtMatchingCount)
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Get the strength of the strongest key a scan of a search term would find for an item.
+	 * @param itemTerms The terms the item is indexed under, sorted
+	 * @return The match strength, or 0 if the term does not match the item
+	 */
+	private int getItemMatchStrength(String[] itemTerms, String term) {
+		// An exact match is strongest. Otherwise the terms the search term is a prefix of follow the point it
+		// would be inserted, and all have the same strength
+		int idx = Arrays.binarySearch(itemTerms, term);
+		int tokenLength;
+		if (idx >= 0)
+			tokenLength = term.length();
+		else if (-idx-1 < itemTerms.length && itemTerms[-idx-1].startsWith(term))
+			tokenLength = itemTerms[-idx-1].length();
+		else
+			return 0;
+		return isOneWordSearchTerm(term) ? getTermMatchStrength(tokenLength, term) : getTupleTermMatchStrength(tokenLength, term);
+	}
+
+	/**
+	 * Scan the posting ranges of all valid search terms at the same time on the index executor, handing each page
+	 * of matching keys to the handler on the calling thread as it arrives. Query latency therefore tracks the
+	 * slowest term scan rather than the sum of them. Pages of different terms arrive interleaved, but pages of the
+	 * same term arrive in order. The scans are cancelled if the handler asks to stop.
+	 */
+	protected void scanTerms(String[] terms, ConsistencyLevel cLevel, ITermPageHandler handler) throws Exception {
+		// Repeated terms only need scanning once
+		Map<String, List<Integer>> termIdxs = new LinkedHashMap<String, List<Integer>>();
+		for (int t=0; t<terms.length; t++) {
+			if (!termIndex.isValidKeyPrefix(terms[t]))
+				continue;
+			List<Integer> idxs = termIdxs.get(terms[t]);
+			if (idxs == null) {
+				idxs = new ArrayList<Integer>(1);
+				termIdxs.put(terms[t], idxs);
+			}
+			idxs.add(t);
+		}
+		if (termIdxs.isEmpty())
+			return;
+
+		BlockingQueue<TermPage> pages = new LinkedBlockingQueue<TermPage>(termIdxs.size() * 2);
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		List<Future<?>> scans = new ArrayList<Future<?>>(termIdxs.size());
+		for (Map.Entry<String, List<Integer>> entry : termIdxs.entrySet())
+			scans.add(getExecutor().submit(new TermScan(entry.getKey(), entry.getValue(), pages, cancelled, cLevel)));
+
+		int remainingScans = scans.size();
+		try {
+			while (remainingScans > 0) {
+				TermPage page = pages.take();
+				if (page.failure != null)
+					throw page.failure;
+				if (page.postings == null) {
+					remainingScans--;
+					continue;
+				}
+				for (int t : page.termIdxs)
+					if (!handler.processPage(t, page.postings))
+						return;
+			}
+		} finally {
+			if (remainingScans > 0) {
+				cancelled.set(true);
+				for (Future<?> scan : scans)
+					scan.cancel(true);
+			}
+		}
+	}
+
+	protected interface ITermPageHandler {
+		/**
+		 * @return Whether to carry on scanning
+		 */
+		boolean processPage(int termIdx, PostingPage page) throws Exception;
+	}
+
+	private static class TermPage {
+		TermPage(List<Integer> termIdxs, PostingPage postings, Exception failure) {
+			this.termIdxs = termIdxs;
+			this.postings = postings;
+			this.failure = failure;
+		}
+		final List<Integer> termIdxs;
+		final PostingPage postings; // null once the scan of the term is complete
+		final Exception failure;
+	}
+
+	private class TermScan implements Runnable {
+
+		private final String term;
+		private final List<Integer> termIdxs;
+		private final BlockingQueue<TermPage> pages;
+		private final AtomicBoolean cancelled;
+		private final ConsistencyLevel cLevel;
+
+		TermScan(String term, List<Integer> termIdxs, BlockingQueue<TermPage> pages, AtomicBoolean cancelled, ConsistencyLevel cLevel) {
+			this.term = term;
+			this.termIdxs = termIdxs;
+			this.pages = pages;
+			this.cancelled = cancelled;
+			this.cLevel = cLevel;
+		}
+
+		@Override
+		public void run() {
+			PostingIterator postings = null;
+			try {
+				// Iterate through all matching word keys
+				postings = getPostingIterator(term, PostingRange.ALL, ((Config)config).matchTermPageSize, cLevel);
+				while (!cancelled.get() && postings.hasNext())
+					put(new TermPage(termIdxs, postings.next(), null));
+				put(new TermPage(termIdxs, null, null));
+			} catch (Exception ex) {
+				try {
+					put(new TermPage(termIdxs, null, ex));
+				} catch (InterruptedException interruptedEx) {
+					// cancelled
+				}
+			} finally {
+				// Stop any prefetching, in case the scan was cancelled
+				if (postings != null)
+					postings.close();
+			}
+		}
+
+		private void put(TermPage page) throws InterruptedException {
+			while (!cancelled.get() && !pages.offer(page, 100, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * The postings of a search term that can be read: those of the term and every longer term it prefixes, those
+	 * of the term alone, or those of the longer terms alone.
+	 */
+	protected enum PostingRange {
+		ALL, EXACT, LONGER
+	}
+
+	/**
+	 * Get an iterator over the postings of a term in key order, in the configured format.
+	 */
+	protected PostingIterator getPostingIterator(String term, PostingRange range, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		if (((Config)config).binaryPostings) {
+			byte[] start = range == PostingRange.EXACT ? PostingCodec.getExactStart(term) : PostingCodec.getPrefixStart(term);
+			byte[] stop = range == PostingRange.LONGER ? PostingCodec.getLongerTermsStop(term) : PostingCodec.getPrefixStop(term);
+			return new PostingIterator(termIndex.getColumnIterator(term, start, stop, maxPageSize, cLevel));
+		}
+		switch (range) {
+		case EXACT:
+			// Exact postings are those where the separator directly follows the term
+			return new PostingIterator(termIndex.getIterator(term + TERM_TO_ENTRYID_SEPARATOR, false, maxPageSize, cLevel));
+		case LONGER:
+			// The other postings of the term precede the exact postings, since the separator sorts after other characters
+			return new PostingIterator(termIndex.getRangeIterator(term, term, term + TERM_TO_ENTRYID_SEPARATOR, maxPageSize, cLevel));
+		default:
+			return new PostingIterator(termIndex.getIterator(term, false, maxPageSize, cLevel));
+		}
+	}
+
+	/**
+	 * Count the postings of a term and the longer terms it prefixes, stopping once a limit is reached.
+	 */
+	protected int countPostings(String term, int maxCount, ConsistencyLevel cLevel) throws Exception {
+		if (((Config)config).binaryPostings)
+			return termIndex.countColumns(term, PostingCodec.getPrefixStart(term), PostingCodec.getPrefixStop(term), maxCount, cLevel);
+		return termIndex.countKeysWithPrefix(term, maxCount, cLevel);
+	}
+
+	/**
+	 * Pages through postings, reading either compound keys or binary column names.
+	 */
+	protected static class PostingIterator {
+
+		private final IKeyIterator keys;
+		private final IPageIterator<List<Column>> columns;
+
+		PostingIterator(IKeyIterator keys) {
+			this.keys = keys;
+			this.columns = null;
+		}
+
+		PostingIterator(IPageIterator<List<Column>> columns) {
+			this.keys = null;
+			this.columns = columns;
+		}
+
+		public boolean hasNext() throws Exception {
+			return keys != null ? keys.hasNext() : columns.hasNext();
+		}
+
+		public PostingPage next() throws Exception {
+			if (keys != null)
+				return new PostingPage(keys.next());
+			List<Column> page = columns.next();
+			byte[][] postings = new byte[page.size()][];
+			for (int i=0; i<postings.length; i++)
+				postings[i] = page.get(i).getName();
+			return new PostingPage(postings);
+		}
+
+		public void close() {
+			if (keys instanceof PrefetchingKeyIterator)
+				((PrefetchingKeyIterator)keys).close();
+			else if (columns != null)
+				columns.close();
 		}
-		return results.toArray(new String[]{});
 	}
 
 	public static class TextTransform {
@@ -298,38 +943,110 @@ public class FullTextIndex extends KeyIndexBase {
 	}
 
 	public String[] itemIdsToText(String[] itemIds, int maxResults, TextTransform textTransform, ConsistencyLevel cLevel) throws Exception {
-		int resultsCount = Math.min(itemIds.length, maxResults);
-		List<String> results = new ArrayList<String>(resultsCount);
-		for (int i=0; i<resultsCount; i++) {
-			String originalText;
-			try {
-				Column column = selector.getColumnFromRow(config.idxColumnFamily, getOriginalItemRecordId(itemIds[i]), ENTRY_META_ORIGINAL_TEXT_COL_ID, cLevel);
-				originalText = Selector.getColumnStringValue(column);
-				if (textTransform.replaceLineBreaks)
-					originalText = CharMatcher.anyOf("\r\n").replaceFrom(originalText, textTransform.lineBreakReplacement);
-			} catch (NotFoundException ex) {
-				// If does not exist, then vacuously succeed
-				originalText = "Error";
-				logger.warn("Cannot retrieve original description for item: {}", itemIds[i]);
+		long startedAt = operationStarted();
+		try {
+			int resultsCount = Math.min(itemIds.length, maxResults);
+			Map<String, String> originalTexts = getOriginalItemTexts(Arrays.asList(itemIds).subList(0, resultsCount), cLevel);
+			List<String> results = new ArrayList<String>(resultsCount);
+			for (int i=0; i<resultsCount; i++) {
+				String originalText = originalTexts.get(itemIds[i]);
+				if (originalText != null) {
+					if (textTransform.replaceLineBreaks)
+						originalText = CharMatcher.anyOf("\r\n").replaceFrom(originalText, textTransform.lineBreakReplacement);
+				} else {
+					// If does not exist, then vacuously succeed
+					originalText = "Error";
+					logger.warn("Cannot retrieve original description for item: {}", itemIds[i]);
+				}
+				results.add(originalText);
 			}
-			results.add(originalText);
+			return results.toArray(new String[] {});
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.ITEM_IDS_TO_TEXT, startedAt);
 		}
-		return results.toArray(new String[] {});
 	}
 
-	private static int getTermMatchStrength(String token, String term) {
-		if (token.length() == term.length())
+	/**
+	 * Add an item asynchronously on the asynchronous executor, as by addItem().
+	 * @return A future completed once the item has been added
+	 */
+	public ListenableFuture<Void> addItemAsync(final String itemId, final String itemText, final ConsistencyLevel cLevel) {
+		return submitAsync(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				addItem(itemId, itemText, cLevel);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Remove an item asynchronously on the asynchronous executor, as by removeItem().
+	 * @return A future completed once the item has been removed
+	 */
+	public ListenableFuture<Void> removeItemAsync(final String itemId, final ConsistencyLevel cLevel) {
+		return submitAsync(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				removeItem(itemId, cLevel);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Search the index asynchronously on the asynchronous executor, as by findItems().
+	 * @return A future completed with the ids of the matching items
+	 */
+	public ListenableFuture<String[]> findItemsAsync(final String searchText, final int maxResults, final ConsistencyLevel cLevel) {
+		return submitAsync(new Callable<String[]>() {
+			@Override
+			public String[] call() throws Exception {
+				return findItems(searchText, maxResults, cLevel);
+			}
+		});
+	}
+
+	/**
+	 * Read the original text of items asynchronously on the asynchronous executor, as by itemIdsToText().
+	 * @return A future completed with the text of the items
+	 */
+	public ListenableFuture<String[]> itemIdsToTextAsync(final String[] itemIds, final int maxResults, final TextTransform textTransform, final ConsistencyLevel cLevel) {
+		return submitAsync(new Callable<String[]>() {
+			@Override
+			public String[] call() throws Exception {
+				return itemIdsToText(itemIds, maxResults, textTransform, cLevel);
+			}
+		});
+	}
+
+	/**
+	 * Search the index and read the original text of the matching items asynchronously. The text is read once
+	 * the search completes, without any thread waiting in between.
+	 * @return A future completed with the text of the matching items, strongest match first
+	 */
+	public ListenableFuture<String[]> findItemTextsAsync(String searchText, final int maxResults, final TextTransform textTransform, final ConsistencyLevel cLevel) {
+		return Futures.chain(findItemsAsync(searchText, maxResults, cLevel), new Function<String[], ListenableFuture<String[]>>() {
+			@Override
+			public ListenableFuture<String[]> apply(String[] itemIds) {
+				return itemIdsToTextAsync(itemIds, maxResults, textTransform, cLevel);
+			}
+		});
+	}
+
+	static int getTermMatchStrength(int tokenLength, String term) {
+		if (tokenLength == term.length())
 			return 4;
 		return 2;
 	}
 
-	private static int getTupleTermMatchStrength(String token, String tuple) {
-		if (token.length() == tuple.length())
+	static int getTupleTermMatchStrength(int tokenLength, String tuple) {
+		if (tokenLength == tuple.length())
 			return 2;
 		return 1;
 	}
 
-	private void VALIDATE_ITEM_ID(String itemId) throws Exception {
+	protected void VALIDATE_ITEM_ID(String itemId) throws Exception {
 		for (char c : itemId.toCharArray()) {
 		    if (Character.isUpperCase(c)) {
 		    	throw new Exception("Invalid item id: Uppercase letters may not be used in item identifiers.");
@@ -340,32 +1057,38 @@ public class FullTextIndex extends KeyIndexBase {
 		}
 	}
 
-	private static class ItemMatchCount {
-		public ItemMatchCount(String itemId) {
+	protected static class ItemUpdate {
+		public ItemUpdate(String itemId, String itemText) {
 			this.itemId = itemId;
+			this.itemText = itemText;
 		}
-		String itemId;
-		int wordTermHits = 0;
-		int lastMatchingWordIdx = -1;
-		int lastMatchingWordStrength = 0;
-		int lastMatchingTupleIdx = -1;
-		int lastMatchingTupleStrength = 0;
-		int totalMatchStrength = 0;
-	};
+		final String itemId;
+		final String itemText;
+		final List<String> staleTerms = new ArrayList<String>(); // terms whose postings must be deleted
+		final List<String> newTerms = new ArrayList<String>(); // terms whose postings must be written
+		boolean textChanged = true;
+		byte[] termList; // the encoded term list to store, if any
+		boolean deleteTermList = false;
 
-	private class DecreasingMatchStrength implements Comparator<ItemMatchCount> {
-
-		@Override
-		public int compare(ItemMatchCount o1, ItemMatchCount o2) {
-			if (o1.totalMatchStrength > o2.totalMatchStrength)
-				return -1;
-			else if (o1.totalMatchStrength == o2.totalMatchStrength)
+		int getMutationCount() {
+			if (!textChanged)
 				return 0;
-			else
-				return 1;
+			return 1 + staleTerms.size() + newTerms.size() + (termList != null || deleteTermList ? 1 : 0);
 		}
 	};
 
+	/**
+	 * The stored record of an item.
+	 */
+	protected static class ItemRecord {
+		public ItemRecord(String text, String[] terms) {
+			this.text = text;
+			this.terms = terms;
+		}
+		final String text;
+		final String[] terms; // the terms the item is indexed under, or null if no list is stored
+	}
+
 	protected static String getOriginalItemRecordId(String itemId) {
 		return ENTRY_META_DATA_KEY_PREFIX + itemId;
 	}
@@ -374,6 +1097,11 @@ public class FullTextIndex extends KeyIndexBase {
 		return word + TERM_TO_ENTRYID_SEPARATOR + itemId;
 	}
 
+	// The order of items of equal score, which is that of the postings
+	Comparator<String> getItemIdOrder() {
+		return ((Config)config).binaryPostings ? PostingCodec.ITEM_ID_ORDER : ItemScoreAccumulator.ITEM_ID_ORDER;
+	}
+
 	// Whether a term is a tuple term e.g. "exam results"
 	protected boolean isOneWordSearchTerm(String term) {
 		return !term.contains(" ");
@@ -381,54 +1109,11 @@ public class FullTextIndex extends KeyIndexBase {
 
 	// Extract search terms from text. Search terms include words and word tuples e.g "results" and "exam results"
 	protected String[] getNormalizedSearchTermsFromText(String text) {
-		String[] sentences = getSentencesFromText(text);
-		List<String> result = new ArrayList<String>(250);
-		for (String sentence : sentences) {
-			String[] words = getNormalizedWordsFromSentence(sentence);
-			String prevWord = null;
-			for (String word : words) {
-				if (!((Config)config).isBlockWordPrefix(word))
-					result.add(word);
-				if (prevWord != null) {
-					String comboTerm = prevWord + " " + word;
-					result.add(comboTerm);
-				}
-				prevWord = word;
-			}
-		}
-		return result.toArray(new String[]{});
-	}
-
-	// Extract unbroken series of words e.g. sentences
-	protected String[] getSentencesFromText(String text) {
-		Iterable<String> sentences = Splitter
-		.onPattern("[\\!\\(\\)\\{\\}\\=\\[\\]\\;\\:\\|\"\\?/\\<\\>\\.\\,]")
-		.trimResults()
-		.omitEmptyStrings()
-		.split(text);
-		List<String> result = new ArrayList<String>(250);
-		for (String sentence : sentences)
-			result.add(sentence);
-		return result.toArray(new String[]{});
-	}
-
-	// Extract array of normalized word from series
-	protected String[] getNormalizedWordsFromSentence(String sentence) {
-		Iterable<String> words = Splitter
-		.onPattern("[\\@\\\\$\\%\\^\\&\\*\\+\\_\\~\\s]")
-		.trimResults()
-		.omitEmptyStrings()
-		.split(sentence);
-		List<String> result = new ArrayList<String>(100);
-		for (String word : words) {
-			if (!word.equals("-")) // double-barreled words are OK, hyphens are not
-				result.add(normalizeWord(word));
-		}
-		return result.toArray(new String[]{});
+		return tokenizers.get().getNormalizedSearchTerms(text, (Config)config);
 	}
 
 	protected static String normalizeWord(String word) {
-		String normalized = CharMatcher.INVISIBLE.or(CharMatcher.anyOf("'")).removeFrom(word);
+		String normalized = Tokenizer.NORMALIZE_REMOVE.removeFrom(word);
 		normalized = normalized.toLowerCase();
 		return normalized;
 	}
@@ -0,0 +1,92 @@
+package org.scale7.cassyndex;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative values, such as latencies in nanoseconds. Values below 16 are counted
+ * exactly, and larger values in buckets covering an eighth of a power of two, so that reported percentiles are
+ * within 12.5% of the true value. Recording a value costs a few atomic increments and no allocation.
+ */
+class Histogram {
+
+	private static final int EXACT_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MIN_EXPONENT = 4; // log2(EXACT_BUCKETS)
+	private static final int BUCKET_COUNT = EXACT_BUCKETS + (63 - MIN_EXPONENT) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long value) {
+		if (value < 0)
+			value = 0;
+		buckets.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value))
+			currentMax = max.get();
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getSum() {
+		return sum.get();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	double getMean() {
+		long n = count.get();
+		return n > 0 ? (double)sum.get() / n : 0;
+	}
+
+	/**
+	 * Estimate a percentile of the recorded values.
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The upper bound of the bucket holding the percentile, or 0 if nothing has been recorded
+	 */
+	long getPercentile(double percentile) {
+		long n = 0;
+		long[] counts = new long[BUCKET_COUNT];
+		for (int b=0; b<BUCKET_COUNT; b++) {
+			counts[b] = buckets.get(b);
+			n += counts[b];
+		}
+		if (n == 0)
+			return 0;
+		long target = Math.max(1, (long)Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int b=0; b<BUCKET_COUNT; b++) {
+			seen += counts[b];
+			if (seen >= target)
+				return Math.min(getBucketUpperBound(b), max.get());
+		}
+		return max.get();
+	}
+
+	private static int getBucket(long value) {
+		if (value < EXACT_BUCKETS)
+			return (int)value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return EXACT_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getBucketUpperBound(int bucket) {
+		if (bucket < EXACT_BUCKETS)
+			return bucket;
+		int exponent = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + MIN_EXPONENT;
+		int subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((long)(SUB_BUCKETS + subBucket) * width) + width - 1;
+	}
+}
@@ -0,0 +1,12 @@
+package org.scale7.cassyndex;
+
+/**
+ * Receives progress notifications while a bulk indexing operation runs. Notifications are made from
+ * the threads performing the work, so implementations must be thread safe.
+ */
+public interface IBulkIndexListener {
+
+	void itemsProcessed(int processedCount, int totalCount);
+
+	void itemFailed(String itemId, Exception ex);
+}
@@ -0,0 +1,60 @@
+package org.scale7.cassyndex;
+
+/**
+ * Receives measurements of index operations. Implementations are called on the threads performing the operations,
+ * often from many threads at once, so they must be thread safe and cheap. JmxIndexMetrics is the standard
+ * implementation.
+ */
+public interface IIndexMetrics {
+
+	public enum Operation {
+		WRITE_KEY("writeKey"),
+		WRITE_KEYS("writeKeys"),
+		DELETE_KEY("deleteKey"),
+		DELETE_KEYS("deleteKeys"),
+		KEY_EXISTS("keyExists"),
+		KEYS_EXIST("keysExist"),
+		ITERATOR_PAGE("iteratorPage"),
+		GET_PAGE("getPage"),
+		ADD_ITEM("addItem"),
+		ADD_ITEMS("addItems"),
+		REMOVE_ITEM("removeItem"),
+		FIND_ITEMS("findItems"),
+		COUNT_ITEMS("countItems"),
+		SEARCH_ITERATOR_PAGE("searchIteratorPage"),
+		ITEM_IDS_TO_TEXT("itemIdsToText");
+
+		private final String name;
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Record the completion of an operation, whether it succeeded or failed.
+	 * @param operation The operation
+	 * @param elapsedNanos The time the operation took
+	 */
+	void operationCompleted(Operation operation, long elapsedNanos);
+
+	/**
+	 * Record a page of columns read from an index row. Each page read from storage is one round trip.
+	 * @param columnCount The number of columns in the page
+	 * @param bytesDecoded The total size of the column names and values in the page
+	 * @param fromCache Whether the page was served by the page cache rather than storage
+	 */
+	void pageRead(int columnCount, long bytesDecoded, boolean fromCache);
+
+	/**
+	 * Record the volume of work done by a search.
+	 * @param termPageCount The number of pages of term postings read
+	 * @param termColumnCount The number of term postings read
+	 * @param candidateCount The number of distinct items that were scored
+	 */
+	void searchCompleted(int termPageCount, int termColumnCount, int candidateCount);
+}
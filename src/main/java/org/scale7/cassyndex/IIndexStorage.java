@@ -0,0 +1,76 @@
+package org.scale7.cassyndex;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * The storage operations the indexes are built on. Storage holds column families of rows identified by string
+ * keys, and each row holds columns sorted by name as unsigned bytes, which is the order Cassandra uses for the
+ * BytesType and UTF8Type comparators. Wherever a start or stop column name is taken, an empty name leaves that
+ * end of the slice unbounded. Implementations must be safe for use by many threads at once.
+ */
+public interface IIndexStorage {
+
+	/**
+	 * Read a slice of the columns of a row.
+	 * @param columnFamily
+	 * @param rowKey
+	 * @param startColName The column the slice starts from, inclusive
+	 * @param stopColName The column the slice stops at, inclusive
+	 * @param reversed Whether the slice runs in descending column order, in which case the start column is the greater
+	 * @param maxCount The maximum number of columns to return
+	 * @param cLevel
+	 * @return The columns in slice order, which is empty if the row does not exist
+	 * @throws Exception
+	 */
+	List<Column> getSlice(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxCount, ConsistencyLevel cLevel) throws Exception;
+
+	/**
+	 * Count the columns of a row between a start and stop column, inclusive, counting no further than a maximum.
+	 */
+	int getColumnCount(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, int maxCount, ConsistencyLevel cLevel) throws Exception;
+
+	/**
+	 * Read named columns from several rows in one request.
+	 * @return The columns found, keyed by row. Rows having none of the columns may be missing or map to an empty list
+	 */
+	Map<String, List<Column>> getNamedColumns(String columnFamily, List<String> rowKeys, List<byte[]> colNames, ConsistencyLevel cLevel) throws Exception;
+
+	/**
+	 * Read a range of rows, in the storage's row order, together with their first columns. Used to scan a whole
+	 * column family, by starting the next range from the last row key returned.
+	 * @param startRowKey The row to start from, inclusive, or "" to start from the first row
+	 * @param maxRows The maximum number of rows to return
+	 * @param maxColumns The maximum number of columns to return from each row
+	 * @return The rows in storage order. Rows that have been deleted may be returned with no columns
+	 */
+	Map<String, List<Column>> getRowRange(String columnFamily, String startRowKey, int maxRows, int maxColumns, ConsistencyLevel cLevel) throws Exception;
+
+	/**
+	 * Read the rows whose RandomPartitioner tokens fall within a range, in token order, together with their first
+	 * columns. Token ranges let several readers scan separate parts of a column family at once. The tokens are only
+	 * meaningful where getPartitioner() reports the RandomPartitioner: other partitioners place rows by other tokens,
+	 * so a range would select the wrong rows.
+	 * @param startToken The token the range starts after, exclusive, as a decimal string
+	 * @param endToken The token the range ends at, inclusive, as a decimal string
+	 * @param maxRows The maximum number of rows to return
+	 * @param maxColumns The maximum number of columns to return from each row
+	 * @return The rows in token order. Rows that have been deleted may be returned with no columns
+	 */
+	Map<String, List<Column>> getTokenRange(String columnFamily, String startToken, String endToken, int maxRows, int maxColumns, ConsistencyLevel cLevel) throws Exception;
+
+	/**
+	 * Get the partitioner that places rows in storage, which determines the order of row ranges and the tokens
+	 * of rows.
+	 * @return The class name of the partitioner, as reported by Cassandra's describe_partitioner
+	 */
+	String getPartitioner() throws Exception;
+
+	/**
+	 * Create a batch to accumulate mutations in. Batches are not safe for use by several threads at once.
+	 */
+	IStorageBatch createBatch();
+}
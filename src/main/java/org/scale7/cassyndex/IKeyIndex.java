@@ -1,17 +1,36 @@
 package org.scale7.cassyndex;
 
+import java.util.Collection;
+import java.util.Set;
+
 import org.apache.cassandra.thrift.ConsistencyLevel;
 
 public interface IKeyIndex {
 	boolean keyExists(String key, ConsistencyLevel cLevel) throws Exception;
+
+	/**
+	 * Find which of a set of keys exist, reading each bucket row involved once rather than each key.
+	 * @return The keys that exist, as given
+	 */
+	Set<String> keysExist(Collection<String> keys, ConsistencyLevel cLevel) throws Exception;
 	
 	void writeKey(String key, ConsistencyLevel cLevel) throws Exception;
 
 	void deleteKey(String key, ConsistencyLevel cLevel) throws Exception;
+
+	void writeKeys(Collection<String> keys, ConsistencyLevel cLevel) throws Exception;
+
+	void deleteKeys(Collection<String> keys, ConsistencyLevel cLevel) throws Exception;
 	
 	IKeyIterator getIterator(String requiredPrefix, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) throws Exception;
 
 	String[] getPage(String requiredPrefix, String startKey,
 			boolean includeStartKey, boolean reversed, int maxPageSize,
 			ConsistencyLevel cLevel) throws Exception;
+
+	KeyPage getKeyPage(String requiredPrefix, String startKey,
+			boolean includeStartKey, boolean reversed, int maxPageSize,
+			ConsistencyLevel cLevel) throws Exception;
+
+	KeyPage getNextPage(String cursor, int maxPageSize, ConsistencyLevel cLevel) throws Exception;
 }
@@ -0,0 +1,17 @@
+package org.scale7.cassyndex;
+
+/**
+ * Iterates over pages of results read from the index, such as pages of columns.
+ */
+interface IPageIterator<T> {
+
+	boolean hasNext() throws Exception;
+
+	T next() throws Exception;
+
+	/**
+	 * Stop iterating, abandoning any pages being fetched in the background. An iterator that is read until it is
+	 * exhausted need not be closed.
+	 */
+	void close();
+}
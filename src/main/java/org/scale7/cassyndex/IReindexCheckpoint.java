@@ -0,0 +1,26 @@
+package org.scale7.cassyndex;
+
+/**
+ * Records how far each segment of a re-index has progressed, so that an interrupted re-index can be resumed.
+ * Positions are RandomPartitioner tokens held as decimal strings. Implementations must be thread safe.
+ */
+public interface IReindexCheckpoint {
+
+	/**
+	 * Get the position reached in a segment.
+	 * @param segmentCount The number of segments the re-index is split into
+	 * @param segment
+	 * @return The token of the last row processed, or null if the segment has not been started
+	 * @throws Exception
+	 */
+	String load(int segmentCount, int segment) throws Exception;
+
+	/**
+	 * Record the position reached in a segment.
+	 * @param segmentCount The number of segments the re-index is split into
+	 * @param segment
+	 * @param token The token of the last row processed
+	 * @throws Exception
+	 */
+	void save(int segmentCount, int segment, String token) throws Exception;
+}
@@ -0,0 +1,12 @@
+package org.scale7.cassyndex;
+
+/**
+ * Receives progress notifications while a re-index runs. Notifications are made from the threads performing the
+ * work, so implementations must be thread safe.
+ */
+public interface IReindexListener {
+
+	void itemsReindexed(long reindexedCount, int completedSegmentCount, int segmentCount);
+
+	void itemFailed(String itemId, Exception ex);
+}
@@ -0,0 +1,18 @@
+package org.scale7.cassyndex;
+
+public interface ISearchIterator {
+
+	boolean hasNext() throws Exception;
+
+	/**
+	 * Get the next items in rank order, strongest match first.
+	 * @return The ids of one or more items whose rank is now certain
+	 */
+	String[] next() throws Exception;
+
+	/**
+	 * Stop the search, abandoning any postings being fetched in the background. A search that is read until it
+	 * is exhausted need not be closed.
+	 */
+	void close();
+};
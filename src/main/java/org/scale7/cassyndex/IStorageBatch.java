@@ -0,0 +1,18 @@
+package org.scale7.cassyndex;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * Accumulates mutations to be sent to storage together. Column mutations are applied first, in the order they
+ * were added, and row deletions afterwards.
+ */
+public interface IStorageBatch {
+
+	void writeColumn(String columnFamily, String rowKey, byte[] colName, byte[] value);
+
+	void deleteColumn(String columnFamily, String rowKey, byte[] colName);
+
+	void deleteRow(String columnFamily, String rowKey);
+
+	void execute(ConsistencyLevel cLevel) throws Exception;
+}
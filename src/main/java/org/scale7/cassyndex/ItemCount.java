@@ -0,0 +1,37 @@
+package org.scale7.cassyndex;
+
+/**
+ * The number of items matching a search, which may be a lower bound where counting stopped at a threshold.
+ */
+public class ItemCount {
+
+	private final int count;
+	private final boolean lowerBound;
+
+	ItemCount(int count, boolean lowerBound) {
+		this.count = count;
+		this.lowerBound = lowerBound;
+	}
+
+	/**
+	 * @return The number of matching items, or the threshold reached if the count is a lower bound
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Whether at least getCount() items match, rather than exactly that many
+	 */
+	public boolean isLowerBound() {
+		return lowerBound;
+	}
+
+	/**
+	 * @return The count for display, such as "42", or "1000+" where the count is a lower bound
+	 */
+	@Override
+	public String toString() {
+		return lowerBound ? count + "+" : Integer.toString(count);
+	}
+}
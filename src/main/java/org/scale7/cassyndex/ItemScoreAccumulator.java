@@ -0,0 +1,290 @@
+package org.scale7.cassyndex;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Accumulates the match strengths of candidate items during a search, and selects the strongest matches.
+ * Candidate searches with short prefixes can produce hundreds of thousands of candidates, so rather than
+ * allocating an object per candidate, item ids are interned into an open addressing table and their scores are
+ * held in parallel primitive arrays indexed by the order in which items were first seen. Item ids are hashed
+ * and compared straight from the compound keys retrieved from the index, so no strings are created for items
+ * that have already been seen. Where postings are binary, items are held by their encoded ids, and strings are
+ * only created for the items selected.
+ */
+class ItemScoreAccumulator {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * The order of items of equal strength where postings are strings.
+	 */
+	static final Comparator<String> ITEM_ID_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String itemId1, String itemId2) {
+			return itemId1.compareTo(itemId2);
+		}
+	};
+
+	private final int termCount;
+	private final int requiredWordTermHits;
+	private final Comparator<String> itemIdOrder;
+	private int[] table; // open addressing table of item indexes + 1, 0 where free
+	private String[] itemIds;
+	private byte[][] encodedItemIds; // the encoded ids of items added from binary postings, null where not
+	private int[] itemHashes;
+	private int[] wordTermHits;
+	private int[] totalMatchStrengths;
+	private byte[] termMatchStrengths; // strongest match of each item against each term, 0 where the term has not hit
+	private int itemCount = 0;
+	private int matchingItemCount = 0; // items that have hit the required number of word terms
+
+	/**
+	 * @param termCount The number of search terms
+	 * @param requiredWordTermHits The number of word terms an item must hit to match the search
+	 */
+	ItemScoreAccumulator(int termCount, int requiredWordTermHits) {
+		this(termCount, requiredWordTermHits, ITEM_ID_ORDER);
+	}
+
+	/**
+	 * @param termCount The number of search terms
+	 * @param requiredWordTermHits The number of word terms an item must hit to match the search
+	 * @param itemIdOrder The order of items of equal strength, which must be PostingCodec.ITEM_ID_ORDER if any
+	 * matches are added from binary postings
+	 */
+	ItemScoreAccumulator(int termCount, int requiredWordTermHits, Comparator<String> itemIdOrder) {
+		this.termCount = termCount;
+		this.requiredWordTermHits = requiredWordTermHits;
+		this.itemIdOrder = itemIdOrder;
+		table = new int[INITIAL_CAPACITY * 2];
+		itemIds = new String[INITIAL_CAPACITY];
+		encodedItemIds = new byte[INITIAL_CAPACITY][];
+		itemHashes = new int[INITIAL_CAPACITY];
+		wordTermHits = new int[INITIAL_CAPACITY];
+		totalMatchStrengths = new int[INITIAL_CAPACITY];
+		termMatchStrengths = new byte[INITIAL_CAPACITY * termCount];
+	}
+
+	int getItemCount() {
+		return itemCount;
+	}
+
+	/**
+	 * @return The number of items that have hit the required number of word terms, which only grows as matches
+	 * are added
+	 */
+	int getMatchingItemCount() {
+		return requiredWordTermHits == 0 ? itemCount : matchingItemCount;
+	}
+
+	/**
+	 * Record a match of an item against a term. A term can only hit an item once, so where an item has already
+	 * matched the term only the strongest match is kept.
+	 * @param key The key holding the item id
+	 * @param itemIdOffset The offset of the item id within the key, which runs to the end of the key
+	 * @param termIdx The index of the term matched
+	 * @param matchStrength The strength of the match, which must be greater than zero
+	 * @param isWordTerm Whether the term is a single word term, which items are required to hit
+	 */
+	void addMatch(String key, int itemIdOffset, int termIdx, int matchStrength, boolean isWordTerm) {
+		addMatch(getOrAddItem(key, itemIdOffset), termIdx, matchStrength, isWordTerm);
+	}
+
+	/**
+	 * Record a match of an item against a term, taken from a binary posting.
+	 * @param posting The binary posting
+	 * @param idTagOffset The offset of the encoded item id within the posting, which runs to the end of the posting
+	 */
+	void addMatch(byte[] posting, int idTagOffset, int termIdx, int matchStrength, boolean isWordTerm) {
+		addMatch(getOrAddItem(posting, idTagOffset), termIdx, matchStrength, isWordTerm);
+	}
+
+	private void addMatch(int item, int termIdx, int matchStrength, boolean isWordTerm) {
+		int strengthIdx = item * termCount + termIdx;
+		int prevMatchStrength = termMatchStrengths[strengthIdx];
+		if (prevMatchStrength == 0) {
+			if (isWordTerm && ++wordTermHits[item] == requiredWordTermHits)
+				matchingItemCount++;
+			termMatchStrengths[strengthIdx] = (byte)matchStrength;
+			totalMatchStrengths[item] += matchStrength;
+		} else if (matchStrength > prevMatchStrength) {
+			termMatchStrengths[strengthIdx] = (byte)matchStrength;
+			totalMatchStrengths[item] += matchStrength - prevMatchStrength;
+		}
+	}
+
+	/**
+	 * Select the items with the strongest matches, in decreasing order of match strength. Items of equal
+	 * strength are returned in increasing order of item id, so that the result does not depend on the order in
+	 * which parallel term scans delivered their postings. Only items that have hit the required number of word
+	 * terms are selected.
+	 * @param maxResults The maximum number of items to select
+	 * @return The ids of the selected items
+	 */
+	String[] getTopItems(int maxResults) {
+		// Keep the best items seen so far in a bounded heap, with the weakest at the root
+		int[] heap = new int[Math.max(0, Math.min(maxResults, itemCount))];
+		int heapSize = 0;
+		if (heap.length > 0) {
+			for (int item=0; item<itemCount; item++) {
+				if (wordTermHits[item] < requiredWordTermHits)
+					continue;
+				if (heapSize < heap.length) {
+					heap[heapSize] = item;
+					siftUp(heap, heapSize++);
+				} else if (isWeaker(heap[0], item)) {
+					heap[0] = item;
+					siftDown(heap, 0, heapSize);
+				}
+			}
+		}
+
+		// Drain the heap weakest first to order the results
+		String[] result = new String[heapSize];
+		while (heapSize > 0) {
+			result[heapSize-1] = getItemId(heap[0]);
+			heap[0] = heap[--heapSize];
+			siftDown(heap, 0, heapSize);
+		}
+		return result;
+	}
+
+	private String getItemId(int item) {
+		if (itemIds[item] == null)
+			itemIds[item] = PostingCodec.decodeItemId(encodedItemIds[item], 0);
+		return itemIds[item];
+	}
+
+	// Whether item1 ranks below item2. Equal strengths rank in increasing order of item id
+	private boolean isWeaker(int item1, int item2) {
+		if (totalMatchStrengths[item1] != totalMatchStrengths[item2])
+			return totalMatchStrengths[item1] < totalMatchStrengths[item2];
+		return compareItemIds(item1, item2) > 0;
+	}
+
+	private int compareItemIds(int item1, int item2) {
+		// Compare binary ids as encoded rather than creating strings for every tied candidate. Items added by id
+		// alongside binary postings are compared in the same order as strings
+		if (encodedItemIds[item1] != null && encodedItemIds[item2] != null)
+			return compareUnsigned(encodedItemIds[item1], encodedItemIds[item2]);
+		return itemIdOrder.compare(getItemId(item1), getItemId(item2));
+	}
+
+	private static int compareUnsigned(byte[] bytes1, byte[] bytes2) {
+		for (int i=0; i<bytes1.length && i<bytes2.length; i++) {
+			int diff = (bytes1[i] & 0xFF) - (bytes2[i] & 0xFF);
+			if (diff != 0)
+				return diff;
+		}
+		return bytes1.length - bytes2.length;
+	}
+
+	private void siftUp(int[] heap, int pos) {
+		int item = heap[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!isWeaker(item, heap[parent]))
+				break;
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = item;
+	}
+
+	private void siftDown(int[] heap, int pos, int heapSize) {
+		int item = heap[pos];
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && isWeaker(heap[child+1], heap[child]))
+				child++;
+			if (!isWeaker(heap[child], item))
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		if (heapSize > 0)
+			heap[pos] = item;
+	}
+
+	private int getOrAddItem(String key, int itemIdOffset) {
+		int itemIdLength = key.length() - itemIdOffset;
+		int hash = 0;
+		for (int i=itemIdOffset; i<key.length(); i++)
+			hash = 31 * hash + key.charAt(i);
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int item = table[slot] - 1;
+			if (itemHashes[item] == hash && itemIds[item].length() == itemIdLength && key.regionMatches(itemIdOffset, itemIds[item], 0, itemIdLength))
+				return item;
+			slot = (slot + 1) & mask;
+		}
+		if (itemCount == itemIds.length) {
+			grow();
+			return getOrAddItem(key, itemIdOffset);
+		}
+		int item = itemCount++;
+		itemIds[item] = key.substring(itemIdOffset);
+		itemHashes[item] = hash;
+		table[slot] = item + 1;
+		return item;
+	}
+
+	private int getOrAddItem(byte[] posting, int idTagOffset) {
+		int encodedIdLength = posting.length - idTagOffset;
+		int hash = 0;
+		for (int i=idTagOffset; i<posting.length; i++)
+			hash = 31 * hash + posting[i];
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while (table[slot] != 0) {
+			int item = table[slot] - 1;
+			if (itemHashes[item] == hash && encodedItemIds[item] != null && encodedItemIds[item].length == encodedIdLength && regionMatches(posting, idTagOffset, encodedItemIds[item]))
+				return item;
+			slot = (slot + 1) & mask;
+		}
+		if (itemCount == itemIds.length) {
+			grow();
+			return getOrAddItem(posting, idTagOffset);
+		}
+		int item = itemCount++;
+		encodedItemIds[item] = Arrays.copyOfRange(posting, idTagOffset, posting.length);
+		itemHashes[item] = hash;
+		table[slot] = item + 1;
+		return item;
+	}
+
+	private static boolean regionMatches(byte[] bytes, int offset, byte[] other) {
+		for (int i=0; i<other.length; i++)
+			if (bytes[offset + i] != other[i])
+				return false;
+		return true;
+	}
+
+	private void grow() {
+		int capacity = itemIds.length * 2;
+		itemIds = Arrays.copyOf(itemIds, capacity);
+		encodedItemIds = Arrays.copyOf(encodedItemIds, capacity);
+		itemHashes = Arrays.copyOf(itemHashes, capacity);
+		wordTermHits = Arrays.copyOf(wordTermHits, capacity);
+		totalMatchStrengths = Arrays.copyOf(totalMatchStrengths, capacity);
+		termMatchStrengths = Arrays.copyOf(termMatchStrengths, capacity * termCount);
+		// Keep the table at most half full
+		table = new int[capacity * 2];
+		int mask = table.length - 1;
+		for (int item=0; item<itemCount; item++) {
+			int slot = mix(itemHashes[item]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = item + 1;
+		}
+	}
+
+	private static int mix(int hash) {
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		return hash ^ (hash >>> 7) ^ (hash >>> 4);
+	}
+}
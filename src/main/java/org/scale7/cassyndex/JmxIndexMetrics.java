@@ -0,0 +1,240 @@
+package org.scale7.cassyndex;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Records index metrics in memory and exports them over JMX, under the domain org.scale7.cassyndex. Each operation
+ * is exported as its own MBean with a latency histogram, and reads and searches have an MBean each for their
+ * volumes. Recording is lock free and allocation free, so metrics can be left enabled at all times. An instance
+ * can be shared by several indexes, whose measurements are then combined.
+ */
+public class JmxIndexMetrics implements IIndexMetrics {
+
+	public interface OperationStatsMBean {
+		long getCount();
+		double getMeanMillis();
+		double getMaxMillis();
+		double get50thPercentileMillis();
+		double get95thPercentileMillis();
+		double get99thPercentileMillis();
+		double get999thPercentileMillis();
+	}
+
+	public interface ReadStatsMBean {
+		long getPageCount();
+		long getCachedPageCount();
+		long getColumnCount();
+		long getBytesDecoded();
+	}
+
+	public interface SearchStatsMBean {
+		long getSearchCount();
+		double getMeanTermPages();
+		double getMeanTermColumns();
+		long get99thPercentileTermColumns();
+		double getMeanCandidates();
+		long getMaxCandidates();
+		long get99thPercentileCandidates();
+	}
+
+	private final String name;
+	private final Map<Operation, OperationStats> operations = new EnumMap<Operation, OperationStats>(Operation.class);
+	private final ReadStats reads = new ReadStats();
+	private final SearchStats searches = new SearchStats();
+	private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+
+	/**
+	 * @param name The name the MBeans are registered under, which must be unique within the process
+	 */
+	public JmxIndexMetrics(String name) {
+		this.name = name;
+		for (Operation operation : Operation.values())
+			operations.put(operation, new OperationStats());
+	}
+
+	/**
+	 * Register the MBeans with the platform MBean server.
+	 * @throws Exception
+	 */
+	public synchronized void register() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Map.Entry<Operation, OperationStats> entry : operations.entrySet())
+			register(server, "type=Operation,index=" + ObjectName.quote(name) + ",name=" + entry.getKey().getName(), new StandardMBean(entry.getValue(), OperationStatsMBean.class));
+		register(server, "type=Reads,index=" + ObjectName.quote(name), new StandardMBean(reads, ReadStatsMBean.class));
+		register(server, "type=Searches,index=" + ObjectName.quote(name), new StandardMBean(searches, SearchStatsMBean.class));
+	}
+
+	/**
+	 * Unregister the MBeans, for example when the indexes using them are discarded.
+	 * @throws Exception
+	 */
+	public synchronized void unregister() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName objectName : registeredNames)
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		registeredNames.clear();
+	}
+
+	private void register(MBeanServer server, String properties, StandardMBean mbean) throws Exception {
+		ObjectName objectName = new ObjectName("org.scale7.cassyndex:" + properties);
+		server.registerMBean(mbean, objectName);
+		registeredNames.add(objectName);
+	}
+
+	@Override
+	public void operationCompleted(Operation operation, long elapsedNanos) {
+		operations.get(operation).latencies.record(elapsedNanos);
+	}
+
+	@Override
+	public void pageRead(int columnCount, long bytesDecoded, boolean fromCache) {
+		reads.pageCount.incrementAndGet();
+		if (fromCache)
+			reads.cachedPageCount.incrementAndGet();
+		reads.columnCount.addAndGet(columnCount);
+		reads.bytesDecoded.addAndGet(bytesDecoded);
+	}
+
+	@Override
+	public void searchCompleted(int termPageCount, int termColumnCount, int candidateCount) {
+		searches.termPages.record(termPageCount);
+		searches.termColumns.record(termColumnCount);
+		searches.candidates.record(candidateCount);
+	}
+
+	public OperationStatsMBean getOperationStats(Operation operation) {
+		return operations.get(operation);
+	}
+
+	public ReadStatsMBean getReadStats() {
+		return reads;
+	}
+
+	public SearchStatsMBean getSearchStats() {
+		return searches;
+	}
+
+	private static double toMillis(double nanos) {
+		return nanos / 1000000;
+	}
+
+	private static class OperationStats implements OperationStatsMBean {
+
+		final Histogram latencies = new Histogram();
+
+		@Override
+		public long getCount() {
+			return latencies.getCount();
+		}
+
+		@Override
+		public double getMeanMillis() {
+			return toMillis(latencies.getMean());
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return toMillis(latencies.getMax());
+		}
+
+		@Override
+		public double get50thPercentileMillis() {
+			return toMillis(latencies.getPercentile(50));
+		}
+
+		@Override
+		public double get95thPercentileMillis() {
+			return toMillis(latencies.getPercentile(95));
+		}
+
+		@Override
+		public double get99thPercentileMillis() {
+			return toMillis(latencies.getPercentile(99));
+		}
+
+		@Override
+		public double get999thPercentileMillis() {
+			return toMillis(latencies.getPercentile(99.9));
+		}
+	}
+
+	private static class ReadStats implements ReadStatsMBean {
+
+		final AtomicLong pageCount = new AtomicLong();
+		final AtomicLong cachedPageCount = new AtomicLong();
+		final AtomicLong columnCount = new AtomicLong();
+		final AtomicLong bytesDecoded = new AtomicLong();
+
+		@Override
+		public long getPageCount() {
+			return pageCount.get();
+		}
+
+		@Override
+		public long getCachedPageCount() {
+			return cachedPageCount.get();
+		}
+
+		@Override
+		public long getColumnCount() {
+			return columnCount.get();
+		}
+
+		@Override
+		public long getBytesDecoded() {
+			return bytesDecoded.get();
+		}
+	}
+
+	private static class SearchStats implements SearchStatsMBean {
+
+		final Histogram termPages = new Histogram();
+		final Histogram termColumns = new Histogram();
+		final Histogram candidates = new Histogram();
+
+		@Override
+		public long getSearchCount() {
+			return candidates.getCount();
+		}
+
+		@Override
+		public double getMeanTermPages() {
+			return termPages.getMean();
+		}
+
+		@Override
+		public double getMeanTermColumns() {
+			return termColumns.getMean();
+		}
+
+		@Override
+		public long get99thPercentileTermColumns() {
+			return termColumns.getPercentile(99);
+		}
+
+		@Override
+		public double getMeanCandidates() {
+			return candidates.getMean();
+		}
+
+		@Override
+		public long getMaxCandidates() {
+			return candidates.getMax();
+		}
+
+		@Override
+		public long get99thPercentileCandidates() {
+			return candidates.getPercentile(99);
+		}
+	}
+}
@@ -1,13 +1,54 @@
 package org.scale7.cassyndex;
 
-import org.scale7.cassandra.pelops.Pelops;
-import org.scale7.cassandra.pelops.Selector;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.scale7.portability.SystemProxy;
+import org.slf4j.Logger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 
 public abstract class KeyIndexBase {
 
+	private final Logger logger = SystemProxy.getLoggerFromFactory(KeyIndexBase.class);
+
 	public static class Config {
 		protected int bucketKeyPrefixLen;
 		protected String idxColumnFamily;
+		protected int bucketCount = 1;
+		protected ExecutorService executor;
+		protected ExecutorService asyncExecutor;
+		protected int maxBatchSize = 500;
+		protected int maxMultigetRows = 100;
+		protected int prefetchDepth = 0;
+		protected PageCache pageCache;
+		protected long bloomFilterExpectedKeys = 0;
+		protected double bloomFilterFalsePositiveRate;
+		protected long bloomFilterRebuildIntervalMillis = 0;
+		protected IIndexMetrics metrics;
 
 		public Config(String idxColumnFamily) {
 			this(idxColumnFamily, 1);
@@ -17,6 +58,138 @@ public abstract class KeyIndexBase {
 			this.idxColumnFamily = idxColumnFamily;
 			this.bucketKeyPrefixLen = bucketKeyPrefixLen;
 		}
+
+		/**
+		 * Set the number of rows that each key prefix bucket is spread across. By default all keys sharing a
+		 * bucket prefix are written to a single row, so a popular prefix such as "ma" places all of its load on
+		 * one replica set. With a bucket count of N, keys are distributed over N rows by a stable hash of the key,
+		 * and iterators read the rows in parallel and merge them back into a single ordered stream. NOTE the
+		 * bucket count is part of the physical layout of the index and must not be changed once keys have been
+		 * written, otherwise existing keys will no longer be found.
+		 * @param bucketCount The number of rows each key prefix bucket is spread across
+		 */
+		public void setBucketCount(int bucketCount) {
+			if (bucketCount < 1)
+				throw new IllegalArgumentException("The bucket count must be at least 1");
+			this.bucketCount = bucketCount;
+		}
+
+		/**
+		 * Set the executor used to issue reads in parallel e.g. against the rows of a sharded bucket. If no
+		 * executor is set, a shared pool of daemon threads is used. Tasks run on the executor may themselves
+		 * wait on further tasks, so it should not be a small fixed size pool.
+		 * @param executor The executor to issue parallel reads on
+		 */
+		public void setExecutor(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		/**
+		 * Set the executor that asynchronous operations run on. Cassandra is only reached through blocking calls,
+		 * so each asynchronous operation in progress occupies a thread of this executor rather than a thread of the
+		 * caller, and the size of the executor bounds the number of operations in progress. Parallel reads made by
+		 * the operations are issued on the executor set by setExecutor(), so it is safe for this executor to be a
+		 * fixed size pool. If no executor is set, a shared pool of 32 daemon threads is used.
+		 * @param asyncExecutor The executor to run asynchronous operations on
+		 */
+		public void setAsyncExecutor(ExecutorService asyncExecutor) {
+			this.asyncExecutor = asyncExecutor;
+		}
+
+		/**
+		 * Set the maximum number of mutations sent to Cassandra in a single batch when writing or deleting
+		 * many keys at once. Larger batches mean fewer round trips, but a larger request that must be
+		 * applied by the coordinating node in one go.
+		 * @param maxBatchSize The maximum number of mutations per batch
+		 */
+		public void setMaxBatchSize(int maxBatchSize) {
+			if (maxBatchSize < 1)
+				throw new IllegalArgumentException("The maximum batch size must be at least 1");
+			this.maxBatchSize = maxBatchSize;
+		}
+
+		/**
+		 * Set the maximum number of rows read in a single multiget request. Requests for more rows are split
+		 * into several requests, so that a single request does not place too much load on the coordinating node.
+		 * @param maxMultigetRows The maximum number of rows per multiget request
+		 */
+		public void setMaxMultigetRows(int maxMultigetRows) {
+			if (maxMultigetRows < 1)
+				throw new IllegalArgumentException("The maximum number of multiget rows must be at least 1");
+			this.maxMultigetRows = maxMultigetRows;
+		}
+
+		/**
+		 * Set the number of pages iterators fetch in the background ahead of the caller. While the caller is
+		 * processing one page, the following pages are retrieved, hiding most of the network latency when
+		 * iterating over long ranges of keys. A depth of 0, the default, disables prefetching.
+		 * @param prefetchDepth The number of pages to fetch ahead
+		 */
+		public void setPrefetchDepth(int prefetchDepth) {
+			if (prefetchDepth < 0)
+				throw new IllegalArgumentException("The prefetch depth cannot be negative");
+			this.prefetchDepth = prefetchDepth;
+		}
+
+		/**
+		 * Set a cache for the pages of columns read from the index. Writes and deletes made through this index
+		 * invalidate the cached pages of the rows they modify, but modifications made by other clients only
+		 * become visible once cached pages expire. By default pages are not cached.
+		 * @param pageCache The cache to use, which may be shared with other indexes
+		 */
+		public void setPageCache(PageCache pageCache) {
+			this.pageCache = pageCache;
+		}
+
+		/**
+		 * Front key existence checks with an in-process Bloom filter, so that keys that are definitely not
+		 * present are reported without a round trip to Cassandra. The filter is built by scanning every row of
+		 * the index column family, which should therefore be dedicated to this index. Until the first build
+		 * completes, all checks go to Cassandra. Keys written through this index are added to the filter,
+		 * but deleted keys remain in the filter until it is rebuilt. Keys written by other clients, or by other
+		 * index instances in this process, are not added: they are reported as absent until the next rebuild.
+		 * Where other clients write to the index, the rebuild interval bounds how long their keys can be missed,
+		 * and an interval of 0 should only be used if rebuildBloomFilter() is called after they write. A rebuild
+		 * that fails is retried after a delay that doubles with each failure, up to five minutes.
+		 * @param expectedKeys The number of keys the filter is sized for
+		 * @param falsePositiveRate The desired false positive rate when holding the expected number of keys
+		 * @param rebuildIntervalMillis How often the filter is rebuilt in the background to shed deleted keys,
+		 * or 0 to only build it when requested using rebuildBloomFilter()
+		 */
+		public void setBloomFilter(long expectedKeys, double falsePositiveRate, long rebuildIntervalMillis) {
+			if (expectedKeys < 1)
+				throw new IllegalArgumentException("The number of expected keys must be at least 1");
+			if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+				throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+			this.bloomFilterExpectedKeys = expectedKeys;
+			this.bloomFilterFalsePositiveRate = falsePositiveRate;
+			this.bloomFilterRebuildIntervalMillis = rebuildIntervalMillis;
+		}
+
+		/**
+		 * Set where measurements of operations on the index are sent, such as a JmxIndexMetrics instance. By
+		 * default no measurements are made.
+		 * @param metrics The metrics to record to, which may be shared with other indexes
+		 */
+		public void setMetrics(IIndexMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Copy the settings that control the physical layout and read behavior of an index. Used where one
+		 * index is built on top of another, so that the underlying index behaves as configured.
+		 * @param other The configuration to copy settings from
+		 */
+		protected void copyIndexSettingsFrom(Config other) {
+			this.bucketCount = other.bucketCount;
+			this.executor = other.executor;
+			this.asyncExecutor = other.asyncExecutor;
+			this.maxBatchSize = other.maxBatchSize;
+			this.maxMultigetRows = other.maxMultigetRows;
+			this.prefetchDepth = other.prefetchDepth;
+			this.pageCache = other.pageCache;
+			this.metrics = other.metrics;
+		}
 	}
 
 	/**
@@ -33,14 +206,28 @@ public abstract class KeyIndexBase {
 		return false;
 	}
 
-	protected String pelopsPool;
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	protected static final byte[] EMPTY_BYTES = new byte[0];
+
+	private static ExecutorService defaultExecutor;
+	private static ExecutorService defaultAsyncExecutor;
+	private static final int DEFAULT_ASYNC_THREADS = 32;
+	private static final int MAX_PARALLEL_KEY_ROW_READS = 16;
+	private static final long BLOOM_FILTER_MIN_RETRY_MILLIS = 1000;
+	private static final long BLOOM_FILTER_MAX_RETRY_MILLIS = 5 * 60 * 1000;
+
+	protected IIndexStorage storage;
 	protected Config config;
-	protected Selector selector;
+	protected volatile BloomFilter bloomFilter;
+	protected volatile BloomFilter rebuildingBloomFilter;
+	protected volatile long bloomFilterBuiltAt;
+	private volatile long bloomFilterRetryAt; // when a failed background rebuild may be retried
+	private long bloomFilterRetryDelayMillis = 0; // guarded by bloomFilterRebuilding
+	private final AtomicBoolean bloomFilterRebuilding = new AtomicBoolean(false);
 
-	protected KeyIndexBase(String pelopsPool, Config config) {
-		this.pelopsPool = pelopsPool;
+	protected KeyIndexBase(IIndexStorage storage, Config config) {
+		this.storage = storage;
 		this.config = config;
-		selector = Pelops.createSelector(pelopsPool);
 	}
 
 	protected String getBucketRowKey(String keyPrefix, int prefixLength, int bucketIdx) {
@@ -51,8 +238,764 @@ public abstract class KeyIndexBase {
 		return bucketKey;
 	}
 
+	/**
+	 * Get the index of the bucket row a key is stored in. The hash must be stable across processes and
+	 * releases, since it determines where existing keys were written.
+	 * @param colName The column name the key is stored under
+	 * @return The bucket index in the range [0, bucketCount)
+	 */
+	protected int getBucketIdx(String colName) {
+		if (config.bucketCount == 1)
+			return 0;
+		return (colName.hashCode() & Integer.MAX_VALUE) % config.bucketCount;
+	}
+
+	protected String getKeyRowKey(String colName) {
+		return getBucketRowKey(colName, config.bucketKeyPrefixLen, getBucketIdx(colName));
+	}
+
+	/**
+	 * Get the column name a key is stored under. Keys stored under the same column name are the same key as far
+	 * as the index is concerned. By default keys are stored under their own name.
+	 */
+	protected String getColNameForKey(String key) {
+		return key;
+	}
+
+	/**
+	 * Find which of a set of keys exist. Keys the Bloom filter rules out are not read at all. The rest are grouped
+	 * by the bucket row they are stored in, and each row is read with one request naming just the columns of its
+	 * own keys. A column is only ever stored in one row, so rows never want the same columns, and a multiget
+	 * naming every column in every row would read columns that cannot be there. The row requests are spread
+	 * across a bounded number of parallel tasks. Looking up many keys therefore takes a round trip per bucket row
+	 * rather than one per key.
+	 * @return The keys that exist, as given
+	 */
+	protected Set<String> getExistingKeys(Collection<String> keys, final ConsistencyLevel cLevel) throws Exception {
+		// Keys sharing a column name are the same key, so each column is only looked up once
+		final Map<String, Map<String, List<String>>> keysByRow = new LinkedHashMap<String, Map<String, List<String>>>(); // row key -> column name -> keys
+		for (String key : keys) {
+			String colName = getColNameForKey(key);
+			if (!bloomFilterMightContain(colName))
+				continue;
+			String rowKey = getKeyRowKey(colName);
+			Map<String, List<String>> rowKeys = keysByRow.get(rowKey);
+			if (rowKeys == null) {
+				rowKeys = new HashMap<String, List<String>>();
+				keysByRow.put(rowKey, rowKeys);
+			}
+			List<String> colKeys = rowKeys.get(colName);
+			if (colKeys == null) {
+				colKeys = new ArrayList<String>(1);
+				rowKeys.put(colName, colKeys);
+			}
+			colKeys.add(key);
+		}
+
+		List<String> rowKeys = new ArrayList<String>(keysByRow.keySet());
+		if (rowKeys.isEmpty())
+			return new HashSet<String>();
+		if (rowKeys.size() == 1)
+			return getExistingKeysInRows(rowKeys, keysByRow, cLevel);
+
+		int taskCount = Math.min(rowKeys.size(), MAX_PARALLEL_KEY_ROW_READS);
+		List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>(taskCount);
+		for (int i=0; i<taskCount; i++) {
+			final List<String> slice = rowKeys.subList(i * rowKeys.size() / taskCount, (i + 1) * rowKeys.size() / taskCount);
+			futures.add(getExecutor().submit(new Callable<Set<String>>() {
+				@Override
+				public Set<String> call() throws Exception {
+					return getExistingKeysInRows(slice, keysByRow, cLevel);
+				}
+			}));
+		}
+		Set<String> result = new HashSet<String>();
+		for (Set<String> sliceResult : getAll(futures))
+			result.addAll(sliceResult);
+		return result;
+	}
+
+	private Set<String> getExistingKeysInRows(List<String> rowKeys, Map<String, Map<String, List<String>>> keysByRow, ConsistencyLevel cLevel) throws Exception {
+		Set<String> result = new HashSet<String>();
+		for (String rowKey : rowKeys) {
+			Map<String, List<String>> rowKeysByColName = keysByRow.get(rowKey);
+			List<byte[]> colNames = new ArrayList<byte[]>(rowKeysByColName.size());
+			for (String colName : rowKeysByColName.keySet())
+				colNames.add(colName.getBytes(UTF8));
+			List<Column> columns = storage.getNamedColumns(config.idxColumnFamily, Collections.singletonList(rowKey), colNames, cLevel).get(rowKey);
+			if (columns == null)
+				continue;
+			for (Column column : columns) {
+				List<String> colKeys = rowKeysByColName.get(new String(column.getName(), UTF8));
+				if (colKeys != null)
+					result.addAll(colKeys);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add the mutation writing a column whose name is not a plain key to a batch, such as a binary column name.
+	 * @param colName The string the column is filed under, which selects its bucket row
+	 * @param storedColName The name the column is stored under
+	 */
+	protected void addColumnWrite(BatchMutator batch, String colName, byte[] storedColName) throws Exception {
+		String rowKey = getKeyRowKey(colName);
+		batch.nextMutation(rowKey).writeColumn(config.idxColumnFamily, rowKey, storedColName, EMPTY_BYTES);
+		batch.keyWritten(colName);
+	}
+
+	/**
+	 * Add the mutation deleting a column written by addColumnWrite() to a batch.
+	 */
+	protected void addColumnDeletion(BatchMutator batch, String colName, byte[] storedColName) throws Exception {
+		String rowKey = getKeyRowKey(colName);
+		batch.nextMutation(rowKey).deleteColumn(config.idxColumnFamily, rowKey, storedColName);
+	}
+
+	/**
+	 * Convert a column retrieved from the index into the key it represents. By default keys are stored
+	 * as column names.
+	 */
+	protected String getKeyFromColumn(Column column) {
+		return new String(column.getName(), UTF8);
+	}
+
+	protected List<Column> getPageOfColumns(String bucketRowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		PageCache pageCache = config.pageCache;
+		long rowGeneration = 0;
+		if (pageCache != null) {
+			List<Column> columns = pageCache.get(config.idxColumnFamily, bucketRowKey, startColName, stopColName, reversed, maxPageSize);
+			if (columns != null) {
+				pageRead(columns, true);
+				return columns;
+			}
+			rowGeneration = pageCache.getRowGeneration(config.idxColumnFamily, bucketRowKey);
+		}
+		List<Column> columns = storage.getSlice(config.idxColumnFamily, bucketRowKey, startColName, stopColName, reversed, maxPageSize, cLevel);
+		pageRead(columns, false);
+		if (pageCache != null)
+			return pageCache.put(config.idxColumnFamily, bucketRowKey, rowGeneration, startColName, stopColName, reversed, maxPageSize, columns);
+		return columns;
+	}
+
+	private void pageRead(List<Column> columns, boolean fromCache) {
+		IIndexMetrics metrics = config.metrics;
+		if (metrics == null)
+			return;
+		long bytes = 0;
+		for (Column column : columns)
+			bytes += column.getName().length + column.getValue().length;
+		metrics.pageRead(columns.size(), bytes, fromCache);
+	}
+
+	/**
+	 * Read the page of keys following the position held by a cursor returned with an earlier page.
+	 * @param cursor The cursor returned by KeyPage.getCursor()
+	 * @param maxPageSize The maximum number of keys to read
+	 * @param cLevel
+	 * @return The following page, which is empty if there are no keys after the cursor
+	 * @throws Exception
+	 */
+	public KeyPage getNextPage(String cursor, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			KeyPage.Cursor position = KeyPage.Cursor.decode(cursor);
+			VALIDATE(position.colPrefix);
+			return readKeyPage(position.colPrefix, position.lastColName, false, position.reversed, maxPageSize, cLevel);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.GET_PAGE, startedAt);
+		}
+	}
+
+	/**
+	 * Read a single page of the keys having a required prefix, merged across bucket rows. Each bucket row is read
+	 * with a single slice, in parallel where there are several rows.
+	 * @param colPrefix The required prefix, as it appears in stored column names
+	 * @param startColName The column name to start from, or null to start at the beginning of the prefix range
+	 * @param includeStart Whether a column named startColName is included in the page
+	 * @return The page, with a cursor if the page is full
+	 */
+	protected KeyPage readKeyPage(String colPrefix, byte[] startColName, boolean includeStart, final boolean reversed, int maxPageSize, final ConsistencyLevel cLevel) throws Exception {
+		byte[] rangeStart = (reversed ? colPrefix + Character.MAX_VALUE : colPrefix).getBytes(UTF8);
+		final byte[] rangeStop = (reversed ? colPrefix : colPrefix + Character.MAX_VALUE).getBytes(UTF8);
+		byte[] sliceStart = rangeStart;
+		byte[] excludedColName = null;
+		if (startColName != null) {
+			int startCmp = compareColumnNames(startColName, rangeStart);
+			int stopCmp = compareColumnNames(startColName, rangeStop);
+			if (reversed ? stopCmp < 0 : stopCmp > 0)
+				// The start lies beyond the prefix range
+				return new KeyPage(new String[0], null);
+			if (reversed ? startCmp <= 0 : startCmp >= 0) {
+				sliceStart = startColName;
+				if (!includeStart)
+					excludedColName = startColName;
+			}
+		}
+
+		// Read one more column from each row if the start column may be excluded, so the page can still be full
+		final byte[] start = sliceStart;
+		final int sliceSize = excludedColName != null ? maxPageSize + 1 : maxPageSize;
+		List<List<Column>> slices;
+		if (config.bucketCount == 1) {
+			String bucketRowKey = getBucketRowKey(colPrefix, config.bucketKeyPrefixLen, 0);
+			slices = Collections.singletonList(getPageOfColumns(bucketRowKey, start, rangeStop, reversed, sliceSize, cLevel));
+		} else {
+			List<Future<List<Column>>> futures = new ArrayList<Future<List<Column>>>(config.bucketCount);
+			for (int bucketIdx=0; bucketIdx<config.bucketCount; bucketIdx++) {
+				final String bucketRowKey = getBucketRowKey(colPrefix, config.bucketKeyPrefixLen, bucketIdx);
+				futures.add(getExecutor().submit(new Callable<List<Column>>() {
+					@Override
+					public List<Column> call() throws Exception {
+						return getPageOfColumns(bucketRowKey, start, rangeStop, reversed, sliceSize, cLevel);
+					}
+				}));
+			}
+			slices = getAll(futures);
+		}
+
+		List<Column> columns = new ArrayList<Column>(sliceSize * slices.size());
+		for (List<Column> slice : slices)
+			for (Column column : slice)
+				if (excludedColName == null || !Arrays.equals(column.getName(), excludedColName))
+					columns.add(column);
+		Collections.sort(columns, new Comparator<Column>() {
+			@Override
+			public int compare(Column column1, Column column2) {
+				int cmp = compareColumnNames(column1.getName(), column2.getName());
+				return reversed ? -cmp : cmp;
+			}
+		});
+
+		// Where fewer columns than a full page remain, every row was read to the end of the range
+		int pageSize = Math.min(maxPageSize, columns.size());
+		String[] keys = new String[pageSize];
+		for (int i=0; i<pageSize; i++)
+			keys[i] = getKeyFromColumn(columns.get(i));
+		String cursor = null;
+		if (pageSize > 0 && pageSize == maxPageSize)
+			cursor = new KeyPage.Cursor(colPrefix, reversed, columns.get(pageSize-1).getName()).encode();
+		return new KeyPage(keys, cursor);
+	}
+
+	/**
+	 * Iterate over the keys between a start and stop column name, both inclusive, in column name order. The keys
+	 * must share a prefix at least as long as the bucket key prefix, so that they are found in the same bucket rows.
+	 * @param colPrefix The prefix shared by the start and stop column names
+	 */
+	protected IKeyIterator getRangeIterator(String colPrefix, String startColName, String stopColName, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		VALIDATE(colPrefix);
+		return withPrefetching(new KeyIterator(colPrefix, startColName, stopColName, false, maxPageSize, cLevel));
+	}
+
+	/**
+	 * Get an iterator over pages of the columns between a start and stop column name, in ascending order, for
+	 * reading columns whose names are not plain keys. Pages are prefetched in the same way as pages of keys.
+	 * @param colPrefix A prefix shared by the start and stop column names, which selects the bucket rows read
+	 */
+	protected IPageIterator<List<Column>> getColumnIterator(String colPrefix, byte[] startColName, byte[] stopColName, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		VALIDATE(colPrefix);
+		final KeyIterator columns = new KeyIterator(colPrefix, startColName, stopColName, false, maxPageSize, cLevel);
+		IPageIterator<List<Column>> pages = new IPageIterator<List<Column>>() {
+			@Override
+			public boolean hasNext() throws Exception {
+				return columns.hasNext();
+			}
+
+			@Override
+			public List<Column> next() throws Exception {
+				return columns.nextColumns();
+			}
+
+			@Override
+			public void close() {
+				// Pages are only read on demand, so there is nothing to release
+			}
+		};
+		if (config.prefetchDepth == 0)
+			return pages;
+		return new PrefetchingPageIterator<List<Column>>(pages, config.prefetchDepth, getExecutor());
+	}
+
+	/**
+	 * Count the keys starting with a prefix across all bucket rows, stopping once a limit is reached. Only
+	 * counts are returned by Cassandra, so this is much cheaper than iterating over the keys.
+	 * @param colPrefix The required prefix, as it appears in stored column names
+	 * @param maxCount The count at which to stop counting
+	 * @return The number of keys, or maxCount if there are at least that many
+	 */
+	protected int countKeysWithPrefix(String colPrefix, int maxCount, ConsistencyLevel cLevel) throws Exception {
+		return countColumns(colPrefix, colPrefix.getBytes(UTF8), (colPrefix + Character.MAX_VALUE).getBytes(UTF8), maxCount, cLevel);
+	}
+
+	/**
+	 * Count the columns between a start and stop column name across all bucket rows, inclusive, stopping once a
+	 * limit is reached.
+	 * @param colPrefix A prefix shared by the start and stop column names, which selects the bucket rows read
+	 * @param maxCount The count at which to stop counting
+	 * @return The number of columns, or maxCount if there are at least that many
+	 */
+	protected int countColumns(String colPrefix, byte[] startColName, byte[] stopColName, int maxCount, ConsistencyLevel cLevel) throws Exception {
+		int count = 0;
+		for (int bucketIdx=0; bucketIdx<config.bucketCount && count<maxCount; bucketIdx++) {
+			String bucketRowKey = getBucketRowKey(colPrefix, config.bucketKeyPrefixLen, bucketIdx);
+			count += storage.getColumnCount(config.idxColumnFamily, bucketRowKey, startColName, stopColName, maxCount - count, cLevel);
+		}
+		return Math.min(count, maxCount);
+	}
+
+	/**
+	 * Get the time an operation started, for passing to operationCompleted().
+	 */
+	protected long operationStarted() {
+		return config.metrics != null ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the completion of an operation with the configured metrics, if any.
+	 * @param operation The operation
+	 * @param startedAt The time returned by operationStarted() when the operation began
+	 */
+	protected void operationCompleted(IIndexMetrics.Operation operation, long startedAt) {
+		IIndexMetrics metrics = config.metrics;
+		if (metrics != null)
+			metrics.operationCompleted(operation, System.nanoTime() - startedAt);
+	}
+
+	/**
+	 * Wrap an iterator so that it prefetches pages, if prefetching is configured.
+	 */
+	protected IKeyIterator withPrefetching(IKeyIterator iterator) {
+		if (config.prefetchDepth == 0)
+			return iterator;
+		return new PrefetchingKeyIterator(iterator, config.prefetchDepth, getExecutor());
+	}
+
+	/**
+	 * Build the Bloom filter fronting key existence checks by scanning every row of the index column family.
+	 * The current filter continues to be used until the new filter is complete.
+	 * @param cLevel
+	 * @throws Exception
+	 */
+	public void rebuildBloomFilter(ConsistencyLevel cLevel) throws Exception {
+		if (config.bloomFilterExpectedKeys == 0)
+			throw new IllegalStateException("This index is not configured to use a Bloom filter");
+		BloomFilter filter = new BloomFilter(config.bloomFilterExpectedKeys, config.bloomFilterFalsePositiveRate);
+		// Keys written from now on are added to the new filter as well as the current one
+		rebuildingBloomFilter = filter;
+		try {
+			int rowPageSize = 100;
+			int colPageSize = 1000;
+			String startRowKey = "";
+			String lastRowKey = null;
+			while (true) {
+				Map<String, List<Column>> rows = storage.getRowRange(config.idxColumnFamily, startRowKey, rowPageSize, colPageSize, cLevel);
+				for (Map.Entry<String, List<Column>> row : rows.entrySet()) {
+					if (row.getKey().equals(lastRowKey))
+						continue;
+					List<Column> columns = row.getValue();
+					for (Column column : columns)
+						filter.add(new String(column.getName(), UTF8));
+					// Page through the remainder of wide rows
+					while (columns.size() == colPageSize) {
+						byte[] lastColName = columns.get(columns.size()-1).getName();
+						columns = storage.getSlice(config.idxColumnFamily, row.getKey(), lastColName, EMPTY_BYTES, false, colPageSize, cLevel);
+						for (Column column : columns)
+							filter.add(new String(column.getName(), UTF8));
+					}
+					lastRowKey = row.getKey();
+				}
+				if (rows.size() < rowPageSize)
+					break;
+				startRowKey = lastRowKey;
+			}
+			bloomFilter = filter;
+			bloomFilterBuiltAt = System.currentTimeMillis();
+		} finally {
+			rebuildingBloomFilter = null;
+		}
+	}
+
+	/**
+	 * Get the memory used by the Bloom filter fronting key existence checks.
+	 * @return The size of the filter in bytes, or 0 if no filter has been built
+	 */
+	public long getBloomFilterSizeBytes() {
+		BloomFilter filter = bloomFilter;
+		return filter != null ? filter.getSizeBytes() : 0;
+	}
+
+	/**
+	 * Estimate the current false positive rate of the Bloom filter fronting key existence checks, which rises
+	 * as keys are written beyond the number the filter was sized for.
+	 * @return The estimated false positive rate, or 1 if no filter has been built
+	 */
+	public double getBloomFilterFalsePositiveRate() {
+		BloomFilter filter = bloomFilter;
+		return filter != null ? filter.getFalsePositiveRate() : 1;
+	}
+
+	/**
+	 * Check whether a key might exist according to the Bloom filter, if one is in use.
+	 * @param colName The column name the key is stored under
+	 * @return false if the key definitely does not exist
+	 */
+	protected boolean bloomFilterMightContain(String colName) {
+		if (config.bloomFilterExpectedKeys == 0)
+			return true;
+		scheduleBloomFilterRebuildIfDue();
+		BloomFilter filter = bloomFilter;
+		return filter == null || filter.mightContain(colName);
+	}
+
+	protected void addToBloomFilter(String colName) {
+		BloomFilter filter = bloomFilter;
+		if (filter != null)
+			filter.add(colName);
+		filter = rebuildingBloomFilter;
+		if (filter != null)
+			filter.add(colName);
+	}
+
+	private void scheduleBloomFilterRebuildIfDue() {
+		if (config.bloomFilterRebuildIntervalMillis == 0 && bloomFilter != null)
+			return;
+		long now = System.currentTimeMillis();
+		if (bloomFilter != null && now - bloomFilterBuiltAt < config.bloomFilterRebuildIntervalMillis)
+			return;
+		// Back off after a failure, rather than starting another full scan on every check
+		if (now - bloomFilterRetryAt < 0)
+			return;
+		if (!bloomFilterRebuilding.compareAndSet(false, true))
+			return;
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rebuildBloomFilter(ConsistencyLevel.QUORUM);
+					bloomFilterRetryDelayMillis = 0;
+				} catch (Exception ex) {
+					bloomFilterRetryDelayMillis = Math.min(Math.max(2 * bloomFilterRetryDelayMillis, BLOOM_FILTER_MIN_RETRY_MILLIS), BLOOM_FILTER_MAX_RETRY_MILLIS);
+					bloomFilterRetryAt = System.currentTimeMillis() + bloomFilterRetryDelayMillis;
+					logger.warn("Failed to rebuild Bloom filter for index: " + config.idxColumnFamily + ", will retry in " + bloomFilterRetryDelayMillis + " ms", ex);
+				} finally {
+					bloomFilterRebuilding.set(false);
+				}
+			}
+		});
+	}
+
+	protected ExecutorService getExecutor() {
+		if (config.executor != null)
+			return config.executor;
+		return getDefaultExecutor();
+	}
+
+	protected static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null)
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "cassyndex-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return defaultExecutor;
+	}
+
+	protected ExecutorService getAsyncExecutor() {
+		if (config.asyncExecutor != null)
+			return config.asyncExecutor;
+		return getDefaultAsyncExecutor();
+	}
+
+	protected static synchronized ExecutorService getDefaultAsyncExecutor() {
+		if (defaultAsyncExecutor == null)
+			defaultAsyncExecutor = Executors.newFixedThreadPool(DEFAULT_ASYNC_THREADS, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "cassyndex-async-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return defaultAsyncExecutor;
+	}
+
+	/**
+	 * Run an operation on the asynchronous executor.
+	 * @return A future completed with the result of the operation
+	 */
+	protected <T> ListenableFuture<T> submitAsync(Callable<T> operation) {
+		ListenableFutureTask<T> task = new ListenableFutureTask<T>(operation);
+		getAsyncExecutor().execute(task);
+		return task;
+	}
+
+	/**
+	 * Wait for a set of parallel operations to complete, rethrowing the first failure encountered.
+	 */
+	protected static <T> List<T> getAll(List<Future<T>> futures) throws Exception {
+		List<T> results = new ArrayList<T>(futures.size());
+		try {
+			for (Future<T> future : futures)
+				results.add(future.get());
+		} catch (ExecutionException ex) {
+			for (Future<T> future : futures)
+				future.cancel(true);
+			if (ex.getCause() instanceof Exception)
+				throw (Exception)ex.getCause();
+			throw ex;
+		}
+		return results;
+	}
+
+	/**
+	 * Compare column names in the order Cassandra sorts them i.e. as unsigned bytes. This is the order for
+	 * both the BytesType and UTF8Type comparators.
+	 */
+	protected static int compareColumnNames(byte[] colName1, byte[] colName2) {
+		int length = Math.min(colName1.length, colName2.length);
+		for (int i=0; i<length; i++) {
+			int b1 = colName1[i] & 0xFF;
+			int b2 = colName2[i] & 0xFF;
+			if (b1 != b2)
+				return b1 - b2;
+		}
+		return colName1.length - colName2.length;
+	}
+
 	protected void VALIDATE(String keyPrefix) throws Exception {
 		if (!isValidKeyPrefix(keyPrefix))
 			throw new Exception("This index only supports searching for keys with prefixes equal to or larger than: " + config.bucketKeyPrefixLen);
 	}
+
+	/**
+	 * Accumulates mutations into as few round trips as possible, flushing whenever the configured maximum
+	 * batch size is reached. Call flush() once all mutations have been added.
+	 */
+	protected class BatchMutator {
+
+		private final ConsistencyLevel cLevel;
+		private IStorageBatch storageBatch;
+		private int mutationCount = 0;
+		private final Set<String> modifiedRowKeys = new HashSet<String>();
+		private final List<String> writtenColNames = new ArrayList<String>();
+
+		protected BatchMutator(ConsistencyLevel cLevel) {
+			this.cLevel = cLevel;
+		}
+
+		/**
+		 * Get the storage batch that the next single mutation should be added to.
+		 * @param rowKey The row that the mutation modifies
+		 */
+		protected IStorageBatch nextMutation(String rowKey) throws Exception {
+			if (mutationCount >= config.maxBatchSize)
+				flush();
+			if (storageBatch == null)
+				storageBatch = storage.createBatch();
+			mutationCount++;
+			if (config.pageCache != null)
+				modifiedRowKeys.add(rowKey);
+			return storageBatch;
+		}
+
+		/**
+		 * Record that a key is being written, so that it can be added to the Bloom filter if one is in use.
+		 * @param colName The column name the key is stored under
+		 */
+		protected void keyWritten(String colName) {
+			if (config.bloomFilterExpectedKeys != 0)
+				writtenColNames.add(colName);
+		}
+
+		protected void flush() throws Exception {
+			if (mutationCount == 0)
+				return;
+			IStorageBatch toExecute = storageBatch;
+			storageBatch = null;
+			mutationCount = 0;
+			// Keys are added to the Bloom filter before they are written, so a successful write can always be
+			// seen. They are added again afterwards in case a rebuild started scanning while the write was in progress
+			for (String colName : writtenColNames)
+				addToBloomFilter(colName);
+			try {
+				toExecute.execute(cLevel);
+				for (String colName : writtenColNames)
+					addToBloomFilter(colName);
+			} finally {
+				writtenColNames.clear();
+				// Invalidate after the mutation is applied, so that a read that started before it cannot cache the
+				// old columns, as its row generation is now out of date
+				if (config.pageCache != null) {
+					for (String rowKey : modifiedRowKeys)
+						config.pageCache.invalidateRow(config.idxColumnFamily, rowKey);
+					modifiedRowKeys.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the keys having a required prefix. The keys of a prefix bucket may be spread across
+	 * several rows, in which case the rows are read in parallel and their sorted pages merged, so that
+	 * the caller sees a single ordered stream.
+	 */
+	protected class KeyIterator implements IKeyIterator {
+
+		private final List<BucketRowCursor> cursors;
+		private final boolean reversed;
+		private final int maxPageSize;
+
+		/**
+		 * @param colPrefix The required prefix, as it appears in stored column names
+		 */
+		protected KeyIterator(String colPrefix, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) {
+			this(colPrefix,
+				reversed ? colPrefix + Character.MAX_VALUE : colPrefix,
+				reversed ? colPrefix : colPrefix + Character.MAX_VALUE,
+				reversed, maxPageSize, cLevel);
+		}
+
+		/**
+		 * @param colPrefix A prefix shared by the start and stop column names, which selects the bucket rows read
+		 * @param startColName The column name to start from, inclusive
+		 * @param stopColName The column name to stop at, inclusive
+		 */
+		protected KeyIterator(String colPrefix, String startColName, String stopColName, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) {
+			this(colPrefix, startColName.getBytes(UTF8), stopColName.getBytes(UTF8), reversed, maxPageSize, cLevel);
+		}
+
+		protected KeyIterator(String colPrefix, byte[] startColName, byte[] stopColName, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) {
+			cursors = new ArrayList<BucketRowCursor>(config.bucketCount);
+			for (int bucketIdx=0; bucketIdx<config.bucketCount; bucketIdx++) {
+				String bucketRowKey = getBucketRowKey(colPrefix, config.bucketKeyPrefixLen, bucketIdx);
+				cursors.add(new BucketRowCursor(bucketRowKey, startColName, stopColName, reversed, maxPageSize, cLevel));
+			}
+			this.reversed = reversed;
+			this.maxPageSize = maxPageSize;
+		}
+
+		@Override
+		public boolean hasNext() throws Exception {
+			fetchEmptyCursors();
+			for (BucketRowCursor cursor : cursors)
+				if (!cursor.buffer.isEmpty())
+					return true;
+			return false;
+		}
+
+		@Override
+		public String[] next() throws Exception {
+			long startedAt = operationStarted();
+			try {
+				List<Column> columns = nextColumns();
+				String[] result = new String[columns.size()];
+				for (int i=0; i<result.length; i++)
+					result[i] = getKeyFromColumn(columns.get(i));
+				return result;
+			} finally {
+				operationCompleted(IIndexMetrics.Operation.ITERATOR_PAGE, startedAt);
+			}
+		}
+
+		/**
+		 * Get the next page of columns, merged across bucket rows.
+		 */
+		protected List<Column> nextColumns() throws Exception {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			List<Column> page = new ArrayList<Column>(maxPageSize);
+			while (page.size() < maxPageSize) {
+				BucketRowCursor head = null;
+				for (BucketRowCursor cursor : cursors) {
+					if (cursor.buffer.isEmpty())
+						continue;
+					if (head == null)
+						head = cursor;
+					else {
+						int cmp = compareColumnNames(cursor.buffer.getFirst().getName(), head.buffer.getFirst().getName());
+						if (reversed ? cmp > 0 : cmp < 0)
+							head = cursor;
+					}
+				}
+				if (head == null)
+					break;
+				page.add(head.buffer.removeFirst());
+				// The next column from this row may precede the heads of the other rows, so we must have it before merging further
+				if (head.buffer.isEmpty() && !head.exhausted)
+					head.fetch();
+			}
+			return page;
+		}
+
+		private void fetchEmptyCursors() throws Exception {
+			List<BucketRowCursor> toFetch = new ArrayList<BucketRowCursor>(cursors.size());
+			for (BucketRowCursor cursor : cursors)
+				if (cursor.buffer.isEmpty() && !cursor.exhausted)
+					toFetch.add(cursor);
+			if (toFetch.size() == 1) {
+				toFetch.get(0).fetch();
+			} else if (toFetch.size() > 1) {
+				List<Future<Void>> futures = new ArrayList<Future<Void>>(toFetch.size());
+				for (final BucketRowCursor cursor : toFetch)
+					futures.add(getExecutor().submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							cursor.fetch();
+							return null;
+						}
+					}));
+				getAll(futures);
+			}
+		}
+	}
+
+	/**
+	 * Pages through the columns of a single bucket row between a start and stop column.
+	 */
+	private class BucketRowCursor {
+
+		private final String bucketRowKey;
+		private final byte[] stopColName;
+		private final boolean reversed;
+		private final int maxPageSize;
+		private final ConsistencyLevel cLevel;
+		private byte[] startColName;
+		private byte[] lastColName;
+		private boolean exhausted = false;
+		private final LinkedList<Column> buffer = new LinkedList<Column>();
+
+		BucketRowCursor(String bucketRowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) {
+			this.bucketRowKey = bucketRowKey;
+			this.startColName = startColName;
+			this.stopColName = stopColName;
+			this.reversed = reversed;
+			this.maxPageSize = maxPageSize;
+			this.cLevel = cLevel;
+		}
+
+		void fetch() throws Exception {
+			// Slices include their start column, so when continuing from the last column we need one extra
+			int count = lastColName == null ? maxPageSize : maxPageSize + 1;
+			List<Column> columns = getPageOfColumns(bucketRowKey, startColName, stopColName, reversed, count, cLevel);
+			exhausted = columns.size() < count;
+			for (Column column : columns) {
+				if (lastColName != null && Arrays.equals(column.getName(), lastColName))
+					continue;
+				buffer.add(column);
+			}
+			if (!columns.isEmpty()) {
+				lastColName = columns.get(columns.size()-1).getName();
+				startColName = lastColName;
+			}
+		}
+	}
 }
@@ -0,0 +1,143 @@
+package org.scale7.cassyndex;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A page of keys read from an index, with a cursor for reading the page that follows it. The cursor is a short
+ * URL safe string that holds the position reached, so it can be handed to a client and passed back in a later
+ * request to a different server. Reading the following page costs a single slice read per bucket row however
+ * deep into the keys the cursor is.
+ */
+public class KeyPage {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CURSOR_FORMAT_VERSION = 1;
+	private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	private final String[] keys;
+	private final String cursor;
+
+	KeyPage(String[] keys, String cursor) {
+		this.keys = keys;
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return The keys of the page, in iteration order
+	 */
+	public String[] getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return The cursor to pass to getNextPage() to read the following page, or null if there are no more keys
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * The position reached by a page. Layout: format version byte, flags byte, varint prefix length in bytes,
+	 * prefix, then the name of the last column read, all encoded as unpadded URL safe base64.
+	 */
+	static class Cursor {
+		Cursor(String colPrefix, boolean reversed, byte[] lastColName) {
+			this.colPrefix = colPrefix;
+			this.reversed = reversed;
+			this.lastColName = lastColName;
+		}
+		final String colPrefix;
+		final boolean reversed;
+		final byte[] lastColName;
+
+		String encode() {
+			byte[] prefix = colPrefix.getBytes(UTF8);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(prefix.length + lastColName.length + 8);
+			out.write(CURSOR_FORMAT_VERSION);
+			out.write(reversed ? 1 : 0);
+			int length = prefix.length;
+			while ((length & ~0x7F) != 0) {
+				out.write((length & 0x7F) | 0x80);
+				length >>>= 7;
+			}
+			out.write(length);
+			out.write(prefix, 0, prefix.length);
+			out.write(lastColName, 0, lastColName.length);
+			return toBase64(out.toByteArray());
+		}
+
+		static Cursor decode(String cursor) {
+			byte[] bytes = fromBase64(cursor);
+			if (bytes.length < 3 || bytes[0] != CURSOR_FORMAT_VERSION)
+				throw new IllegalArgumentException("Invalid key page cursor: " + cursor);
+			boolean reversed = bytes[1] != 0;
+			int pos = 2;
+			int prefixLength = 0;
+			for (int shift = 0; ; shift += 7) {
+				if (pos >= bytes.length || shift > 28)
+					throw new IllegalArgumentException("Invalid key page cursor: " + cursor);
+				int b = bytes[pos++];
+				// The last byte of a length may only hold the bits that keep it a positive int
+				if (shift == 28 && (b & 0xF8) != 0)
+					throw new IllegalArgumentException("Invalid key page cursor: " + cursor);
+				prefixLength |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					break;
+			}
+			if (prefixLength > bytes.length - pos)
+				throw new IllegalArgumentException("Invalid key page cursor: " + cursor);
+			String colPrefix = new String(bytes, pos, prefixLength, UTF8);
+			byte[] lastColName = Arrays.copyOfRange(bytes, pos + prefixLength, bytes.length);
+			return new Cursor(colPrefix, reversed, lastColName);
+		}
+	}
+
+	private static String toBase64(byte[] bytes) {
+		StringBuilder result = new StringBuilder((bytes.length * 4 + 2) / 3);
+		for (int i=0; i<bytes.length; i+=3) {
+			int remaining = Math.min(3, bytes.length - i);
+			int bits = (bytes[i] & 0xFF) << 16;
+			if (remaining > 1)
+				bits |= (bytes[i+1] & 0xFF) << 8;
+			if (remaining > 2)
+				bits |= bytes[i+2] & 0xFF;
+			for (int c=0; c<=remaining; c++)
+				result.append(BASE64_CHARS[(bits >>> (18 - c * 6)) & 0x3F]);
+		}
+		return result.toString();
+	}
+
+	private static byte[] fromBase64(String text) {
+		if (text.length() % 4 == 1)
+			throw new IllegalArgumentException("Invalid key page cursor: " + text);
+		byte[] result = new byte[text.length() * 3 / 4];
+		int bits = 0;
+		int bitCount = 0;
+		int pos = 0;
+		for (int i=0; i<text.length(); i++) {
+			char c = text.charAt(i);
+			int value;
+			if (c >= 'A' && c <= 'Z')
+				value = c - 'A';
+			else if (c >= 'a' && c <= 'z')
+				value = c - 'a' + 26;
+			else if (c >= '0' && c <= '9')
+				value = c - '0' + 52;
+			else if (c == '-')
+				value = 62;
+			else if (c == '_')
+				value = 63;
+			else
+				throw new IllegalArgumentException("Invalid key page cursor: " + text);
+			bits = (bits << 6) | value;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				result[pos++] = (byte)(bits >>> bitCount);
+			}
+		}
+		return result;
+	}
+}
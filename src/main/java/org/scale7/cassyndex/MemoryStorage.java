@@ -0,0 +1,237 @@
+package org.scale7.cassyndex;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * Stores indexes in process, in concurrent sorted maps. Suitable for single node deployments and caches where
+ * a network round trip per lookup is too slow, and for testing. Nothing is persisted, and consistency levels are
+ * ignored. Reads never block, and see each column mutation of a batch as soon as it is applied.
+ */
+public class MemoryStorage implements IIndexStorage {
+
+	private static final Comparator<byte[]> COLUMN_NAME_ORDER = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] colName1, byte[] colName2) {
+			return KeyIndexBase.compareColumnNames(colName1, colName2);
+		}
+	};
+
+	private final ConcurrentMap<String, ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>>> columnFamilies =
+		new ConcurrentHashMap<String, ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>>>();
+
+	@Override
+	public List<Column> getSlice(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxCount, ConsistencyLevel cLevel) {
+		List<Column> result = new ArrayList<Column>();
+		ConcurrentSkipListMap<byte[], Cell> row = getRow(columnFamily, rowKey);
+		if (row == null || maxCount <= 0)
+			return result;
+		NavigableMap<byte[], Cell> slice = reversed ? row.descendingMap() : row;
+		if (startColName.length > 0)
+			slice = slice.tailMap(startColName, true);
+		for (Map.Entry<byte[], Cell> column : slice.entrySet()) {
+			if (stopColName.length > 0) {
+				int cmp = compareColumnNames(column.getKey(), stopColName);
+				if (reversed ? cmp < 0 : cmp > 0)
+					break;
+			}
+			result.add(column.getValue().toColumn(column.getKey()));
+			if (result.size() == maxCount)
+				break;
+		}
+		return result;
+	}
+
+	@Override
+	public int getColumnCount(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, int maxCount, ConsistencyLevel cLevel) {
+		ConcurrentSkipListMap<byte[], Cell> row = getRow(columnFamily, rowKey);
+		if (row == null)
+			return 0;
+		NavigableMap<byte[], Cell> slice = startColName.length > 0 ? row.tailMap(startColName, true) : row;
+		int count = 0;
+		for (byte[] colName : slice.keySet()) {
+			if (count == maxCount || (stopColName.length > 0 && compareColumnNames(colName, stopColName) > 0))
+				break;
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public Map<String, List<Column>> getNamedColumns(String columnFamily, List<String> rowKeys, List<byte[]> colNames, ConsistencyLevel cLevel) {
+		Map<String, List<Column>> result = new LinkedHashMap<String, List<Column>>(rowKeys.size() * 2);
+		for (String rowKey : rowKeys) {
+			ConcurrentSkipListMap<byte[], Cell> row = getRow(columnFamily, rowKey);
+			if (row == null)
+				continue;
+			List<Column> columns = new ArrayList<Column>(colNames.size());
+			for (byte[] colName : colNames) {
+				Cell cell = row.get(colName);
+				if (cell != null)
+					columns.add(cell.toColumn(colName));
+			}
+			result.put(rowKey, columns);
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, List<Column>> getRowRange(String columnFamily, String startRowKey, int maxRows, int maxColumns, ConsistencyLevel cLevel) {
+		Map<String, List<Column>> result = new LinkedHashMap<String, List<Column>>();
+		ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>> rows = columnFamilies.get(columnFamily);
+		if (rows == null)
+			return result;
+		for (String rowKey : rows.tailMap(startRowKey, true).keySet()) {
+			if (result.size() == maxRows)
+				break;
+			result.put(rowKey, getSlice(columnFamily, rowKey, KeyIndexBase.EMPTY_BYTES, KeyIndexBase.EMPTY_BYTES, false, maxColumns, cLevel));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, List<Column>> getTokenRange(String columnFamily, String startToken, String endToken, int maxRows, int maxColumns, ConsistencyLevel cLevel) {
+		Map<String, List<Column>> result = new LinkedHashMap<String, List<Column>>();
+		ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>> rows = columnFamilies.get(columnFamily);
+		if (rows == null)
+			return result;
+		// Rows are held in key order, so those in the range are found by hashing every key
+		BigInteger start = new BigInteger(startToken);
+		BigInteger end = new BigInteger(endToken);
+		TreeMap<BigInteger, String> inRange = new TreeMap<BigInteger, String>();
+		for (String rowKey : rows.keySet()) {
+			BigInteger token = RowTokens.getToken(rowKey);
+			if (token.compareTo(start) > 0 && token.compareTo(end) <= 0)
+				inRange.put(token, rowKey);
+		}
+		for (String rowKey : inRange.values()) {
+			if (result.size() == maxRows)
+				break;
+			result.put(rowKey, getSlice(columnFamily, rowKey, KeyIndexBase.EMPTY_BYTES, KeyIndexBase.EMPTY_BYTES, false, maxColumns, cLevel));
+		}
+		return result;
+	}
+
+	/**
+	 * Row tokens are worked out as the RandomPartitioner does, so that is the partitioner reported.
+	 */
+	@Override
+	public String getPartitioner() {
+		return RowTokens.PARTITIONER;
+	}
+
+	@Override
+	public IStorageBatch createBatch() {
+		return new MemoryBatch();
+	}
+
+	/**
+	 * Remove all rows from all column families.
+	 */
+	public void clear() {
+		columnFamilies.clear();
+	}
+
+	private ConcurrentSkipListMap<byte[], Cell> getRow(String columnFamily, String rowKey) {
+		ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>> rows = columnFamilies.get(columnFamily);
+		return rows != null ? rows.get(rowKey) : null;
+	}
+
+	private ConcurrentSkipListMap<byte[], Cell> getOrCreateRow(String columnFamily, String rowKey) {
+		ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>> rows = columnFamilies.get(columnFamily);
+		if (rows == null) {
+			rows = new ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>>();
+			ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>> existing = columnFamilies.putIfAbsent(columnFamily, rows);
+			if (existing != null)
+				rows = existing;
+		}
+		ConcurrentSkipListMap<byte[], Cell> row = rows.get(rowKey);
+		if (row == null) {
+			row = new ConcurrentSkipListMap<byte[], Cell>(COLUMN_NAME_ORDER);
+			ConcurrentSkipListMap<byte[], Cell> existing = rows.putIfAbsent(rowKey, row);
+			if (existing != null)
+				row = existing;
+		}
+		return row;
+	}
+
+	private static int compareColumnNames(byte[] colName1, byte[] colName2) {
+		return KeyIndexBase.compareColumnNames(colName1, colName2);
+	}
+
+	/**
+	 * The value of a stored column. Columns are created afresh on each read, so callers cannot modify stored state.
+	 */
+	private static class Cell {
+		Cell(byte[] value, long timestamp) {
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+		final byte[] value;
+		final long timestamp;
+
+		Column toColumn(byte[] colName) {
+			Column column = new Column();
+			column.setName(colName.clone());
+			column.setValue(value.clone());
+			column.setTimestamp(timestamp);
+			return column;
+		}
+	}
+
+	private class MemoryBatch implements IStorageBatch {
+
+		private final List<Object[]> columnMutations = new ArrayList<Object[]>();
+		private final List<String[]> deletedRows = new ArrayList<String[]>();
+
+		@Override
+		public void writeColumn(String columnFamily, String rowKey, byte[] colName, byte[] value) {
+			columnMutations.add(new Object[] { columnFamily, rowKey, colName.clone(), value.clone() });
+		}
+
+		@Override
+		public void deleteColumn(String columnFamily, String rowKey, byte[] colName) {
+			columnMutations.add(new Object[] { columnFamily, rowKey, colName.clone(), null });
+		}
+
+		@Override
+		public void deleteRow(String columnFamily, String rowKey) {
+			deletedRows.add(new String[] { columnFamily, rowKey });
+		}
+
+		@Override
+		public void execute(ConsistencyLevel cLevel) {
+			long timestamp = System.currentTimeMillis() * 1000;
+			for (Object[] mutation : columnMutations) {
+				String columnFamily = (String)mutation[0];
+				String rowKey = (String)mutation[1];
+				byte[] colName = (byte[])mutation[2];
+				byte[] value = (byte[])mutation[3];
+				if (value != null) {
+					getOrCreateRow(columnFamily, rowKey).put(colName, new Cell(value, timestamp));
+				} else {
+					ConcurrentSkipListMap<byte[], Cell> row = getRow(columnFamily, rowKey);
+					if (row != null)
+						row.remove(colName);
+				}
+			}
+			for (String[] row : deletedRows) {
+				ConcurrentSkipListMap<String, ConcurrentSkipListMap<byte[], Cell>> rows = columnFamilies.get(row[0]);
+				if (rows != null)
+					rows.remove(row[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package org.scale7.cassyndex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.thrift.Column;
+
+/**
+ * A bounded client side cache of pages of columns read from index rows. Query traffic against an index is
+ * often highly skewed, with a small number of popular prefixes re-reading the same rows over and over. The
+ * cache holds the most recently used pages up to a maximum estimated size in bytes, and pages expire after a
+ * fixed time to live so that writes made by other clients eventually become visible. Writes and deletes made
+ * through an index using the cache invalidate the cached pages of the rows they touch immediately.
+ *
+ * A read that misses the cache can race with a write: the reader may read the old columns, then cache them after
+ * the write has invalidated the row. To prevent this each row has a generation, which invalidation advances.
+ * Readers take the generation before reading from Cassandra, and a page read in an earlier generation is not
+ * cached. Generations are held in a fixed table of counters indexed by row hash, so rows that share a counter
+ * occasionally have a fresh page go uncached, but the table never grows.
+ * A single cache may be shared between several indexes.
+ */
+public class PageCache {
+
+	private static final int ENTRY_OVERHEAD_BYTES = 64;
+	private static final int COLUMN_OVERHEAD_BYTES = 48;
+	private static final int ROW_GENERATION_COUNT = 4096; // a power of two
+
+	private final long maxSizeBytes;
+	private final long timeToLiveMillis;
+	private final LinkedHashMap<PageKey, Page> pages = new LinkedHashMap<PageKey, Page>(256, 0.75f, true);
+	private final Map<RowKey, Set<PageKey>> rowPages = new HashMap<RowKey, Set<PageKey>>();
+	private final long[] rowGenerations = new long[ROW_GENERATION_COUNT];
+	private long sizeBytes = 0;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxSizeBytes The maximum estimated size of the cached pages
+	 * @param timeToLiveMillis The time after which a cached page expires
+	 */
+	public PageCache(long maxSizeBytes, long timeToLiveMillis) {
+		this.maxSizeBytes = maxSizeBytes;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public synchronized long getSizeBytes() {
+		return sizeBytes;
+	}
+
+	public synchronized int getPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * Get a cached page.
+	 * @return The columns of the page, or null if the page is not cached
+	 */
+	List<Column> get(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxPageSize) {
+		PageKey pageKey = new PageKey(columnFamily, rowKey, startColName, stopColName, reversed, maxPageSize);
+		synchronized (this) {
+			Page page = pages.get(pageKey);
+			if (page != null && page.expiresAt > System.currentTimeMillis()) {
+				hitCount.incrementAndGet();
+				return page.columns;
+			}
+			if (page != null)
+				remove(pageKey);
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Get the generation of a row, which must be taken before the row is read for a page to be cached.
+	 */
+	synchronized long getRowGeneration(String columnFamily, String rowKey) {
+		return rowGenerations[getGenerationIdx(new RowKey(columnFamily, rowKey))];
+	}
+
+	/**
+	 * Cache a page, unless the row has been invalidated since it was read.
+	 * @param rowGeneration The generation of the row taken before the page was read
+	 * @return The cached columns, which must not be modified
+	 */
+	List<Column> put(String columnFamily, String rowKey, long rowGeneration, byte[] startColName, byte[] stopColName, boolean reversed, int maxPageSize, List<Column> columns) {
+		PageKey pageKey = new PageKey(columnFamily, rowKey, startColName, stopColName, reversed, maxPageSize);
+		long pageSizeBytes = ENTRY_OVERHEAD_BYTES + pageKey.getSizeBytes();
+		for (Column column : columns)
+			pageSizeBytes += COLUMN_OVERHEAD_BYTES + column.getName().length + column.getValue().length;
+		Page page = new Page(Collections.unmodifiableList(columns), pageSizeBytes, System.currentTimeMillis() + timeToLiveMillis);
+		if (pageSizeBytes > maxSizeBytes)
+			return page.columns;
+
+		synchronized (this) {
+			// The row was modified while the page was being read, so the page may hold the old columns
+			if (rowGenerations[getGenerationIdx(pageKey.rowKey)] != rowGeneration)
+				return page.columns;
+			remove(pageKey);
+			pages.put(pageKey, page);
+			sizeBytes += pageSizeBytes;
+			Set<PageKey> keys = rowPages.get(pageKey.rowKey);
+			if (keys == null) {
+				keys = new HashSet<PageKey>();
+				rowPages.put(pageKey.rowKey, keys);
+			}
+			keys.add(pageKey);
+
+			// Evict least recently used pages until back within bounds
+			Iterator<Map.Entry<PageKey, Page>> i = pages.entrySet().iterator();
+			while (sizeBytes > maxSizeBytes && i.hasNext()) {
+				Map.Entry<PageKey, Page> lru = i.next();
+				i.remove();
+				removed(lru.getKey(), lru.getValue());
+				evictionCount.incrementAndGet();
+			}
+		}
+		return page.columns;
+	}
+
+	/**
+	 * Remove all cached pages of a row, because it has been modified.
+	 */
+	synchronized void invalidateRow(String columnFamily, String rowKey) {
+		RowKey key = new RowKey(columnFamily, rowKey);
+		rowGenerations[getGenerationIdx(key)]++;
+		Set<PageKey> keys = rowPages.get(key);
+		if (keys == null)
+			return;
+		for (PageKey pageKey : keys.toArray(new PageKey[keys.size()]))
+			remove(pageKey);
+	}
+
+	public synchronized void clear() {
+		pages.clear();
+		rowPages.clear();
+		sizeBytes = 0;
+	}
+
+	private static int getGenerationIdx(RowKey rowKey) {
+		int hash = rowKey.hashCode();
+		return (hash ^ (hash >>> 16)) & (ROW_GENERATION_COUNT - 1);
+	}
+
+	private void remove(PageKey pageKey) {
+		Page page = pages.remove(pageKey);
+		if (page != null)
+			removed(pageKey, page);
+	}
+
+	// Account for a page that has been removed from the pages map
+	private void removed(PageKey pageKey, Page page) {
+		Set<PageKey> keys = rowPages.get(pageKey.rowKey);
+		if (keys != null) {
+			keys.remove(pageKey);
+			if (keys.isEmpty())
+				rowPages.remove(pageKey.rowKey);
+		}
+		sizeBytes -= page.sizeBytes;
+	}
+
+	private static class Page {
+		Page(List<Column> columns, long sizeBytes, long expiresAt) {
+			this.columns = columns;
+			this.sizeBytes = sizeBytes;
+			this.expiresAt = expiresAt;
+		}
+		final List<Column> columns;
+		final long sizeBytes;
+		final long expiresAt;
+	}
+
+	private static class RowKey {
+		RowKey(String columnFamily, String rowKey) {
+			this.columnFamily = columnFamily;
+			this.rowKey = rowKey;
+		}
+		final String columnFamily;
+		final String rowKey;
+
+		@Override
+		public int hashCode() {
+			return 31 * columnFamily.hashCode() + rowKey.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RowKey))
+				return false;
+			RowKey other = (RowKey)obj;
+			return columnFamily.equals(other.columnFamily) && rowKey.equals(other.rowKey);
+		}
+	}
+
+	private static class PageKey {
+		PageKey(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxPageSize) {
+			this.rowKey = new RowKey(columnFamily, rowKey);
+			this.startColName = startColName;
+			this.stopColName = stopColName;
+			this.reversed = reversed;
+			this.maxPageSize = maxPageSize;
+			int hash = this.rowKey.hashCode();
+			hash = 31 * hash + Arrays.hashCode(startColName);
+			hash = 31 * hash + Arrays.hashCode(stopColName);
+			hash = 31 * hash + (reversed ? 1 : 0);
+			this.hash = 31 * hash + maxPageSize;
+		}
+		final RowKey rowKey;
+		final byte[] startColName;
+		final byte[] stopColName;
+		final boolean reversed;
+		final int maxPageSize;
+		final int hash;
+
+		long getSizeBytes() {
+			return 2 * (rowKey.columnFamily.length() + rowKey.rowKey.length()) + startColName.length + stopColName.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PageKey))
+				return false;
+			PageKey other = (PageKey)obj;
+			return hash == other.hash && reversed == other.reversed && maxPageSize == other.maxPageSize && rowKey.equals(other.rowKey)
+				&& Arrays.equals(startColName, other.startColName) && Arrays.equals(stopColName, other.stopColName);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.KeyRange;
+import org.scale7.cassandra.pelops.Bytes;
+import org.scale7.cassandra.pelops.Mutator;
+import org.scale7.cassandra.pelops.Pelops;
+import org.scale7.cassandra.pelops.RowDeletor;
+import org.scale7.cassandra.pelops.Selector;
+import org.scale7.cassandra.pelops.pool.IThriftPool;
+
+/**
+ * Stores indexes in Cassandra, through a Pelops connection pool.
+ */
+public class PelopsStorage implements IIndexStorage {
+
+	protected String pelopsPool;
+	protected Selector selector;
+	private volatile String partitioner;
+
+	public PelopsStorage(String pelopsPool) {
+		this.pelopsPool = pelopsPool;
+		selector = Pelops.createSelector(pelopsPool);
+	}
+
+	@Override
+	public List<Column> getSlice(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxCount, ConsistencyLevel cLevel) throws Exception {
+		return selector.getColumnsFromRow(columnFamily, rowKey, Selector.newColumnsPredicate(Bytes.fromBytes(startColName), Bytes.fromBytes(stopColName), reversed, maxCount), cLevel);
+	}
+
+	@Override
+	public int getColumnCount(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, int maxCount, ConsistencyLevel cLevel) throws Exception {
+		return selector.getColumnCount(columnFamily, rowKey, Selector.newColumnsPredicate(Bytes.fromBytes(startColName), Bytes.fromBytes(stopColName), false, maxCount), cLevel);
+	}
+
+	@Override
+	public Map<String, List<Column>> getNamedColumns(String columnFamily, List<String> rowKeys, List<byte[]> colNames, ConsistencyLevel cLevel) throws Exception {
+		Bytes[] names = new Bytes[colNames.size()];
+		for (int i=0; i<names.length; i++)
+			names[i] = Bytes.fromBytes(colNames.get(i));
+		return selector.getColumnsFromRows(columnFamily, rowKeys, Selector.newColumnsPredicate(names), cLevel);
+	}
+
+	@Override
+	public Map<String, List<Column>> getRowRange(String columnFamily, String startRowKey, int maxRows, int maxColumns, ConsistencyLevel cLevel) throws Exception {
+		return selector.getColumnsFromRows(columnFamily, Selector.newKeyRange(startRowKey, "", maxRows), Selector.newColumnsPredicateAll(false, maxColumns), cLevel);
+	}
+
+	@Override
+	public Map<String, List<Column>> getTokenRange(String columnFamily, String startToken, String endToken, int maxRows, int maxColumns, ConsistencyLevel cLevel) throws Exception {
+		KeyRange range = new KeyRange(maxRows).setStart_token(startToken).setEnd_token(endToken);
+		return selector.getColumnsFromRows(columnFamily, range, Selector.newColumnsPredicateAll(false, maxColumns), cLevel);
+	}
+
+	@Override
+	public String getPartitioner() throws Exception {
+		// The partitioner of a cluster cannot be changed, so it is only asked for once
+		if (partitioner == null) {
+			IThriftPool.IPooledConnection connection = Pelops.getDbConnPool(pelopsPool).getConnection();
+			try {
+				partitioner = connection.getAPI().describe_partitioner();
+			} finally {
+				connection.release();
+			}
+		}
+		return partitioner;
+	}
+
+	@Override
+	public IStorageBatch createBatch() {
+		return new PelopsBatch();
+	}
+
+	private class PelopsBatch implements IStorageBatch {
+
+		private Mutator mutator;
+		private final List<String[]> deletedRows = new ArrayList<String[]>();
+
+		@Override
+		public void writeColumn(String columnFamily, String rowKey, byte[] colName, byte[] value) {
+			Mutator mutator = getMutator();
+			mutator.writeColumn(columnFamily, rowKey, mutator.newColumn(Bytes.fromBytes(colName), Bytes.fromBytes(value)));
+		}
+
+		@Override
+		public void deleteColumn(String columnFamily, String rowKey, byte[] colName) {
+			getMutator().deleteColumn(columnFamily, rowKey, Bytes.fromBytes(colName));
+		}
+
+		@Override
+		public void deleteRow(String columnFamily, String rowKey) {
+			deletedRows.add(new String[] { columnFamily, rowKey });
+		}
+
+		@Override
+		public void execute(ConsistencyLevel cLevel) throws Exception {
+			if (mutator != null)
+				mutator.execute(cLevel);
+			if (!deletedRows.isEmpty()) {
+				RowDeletor rowDeletor = Pelops.createRowDeletor(pelopsPool);
+				for (String[] row : deletedRows)
+					rowDeletor.deleteRow(row[0], row[1], cLevel);
+			}
+		}
+
+		private Mutator getMutator() {
+			if (mutator == null)
+				mutator = Pelops.createMutator(pelopsPool);
+			return mutator;
+		}
+	}
+}
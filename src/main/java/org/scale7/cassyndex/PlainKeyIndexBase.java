@@ -0,0 +1,150 @@
+package org.scale7.cassyndex;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * The base of the key indexes that store plain keys, one column per key, as opposed to the postings of a full
+ * text index. Mutations of plain keys can be added to a batch by key alone. Subclasses decide only how a key
+ * maps to the column it is stored in, through getColNameForKey(), getColValueForKey() and getKeyFromColumn().
+ */
+public abstract class PlainKeyIndexBase extends KeyIndexBase implements IKeyIndex {
+
+	protected PlainKeyIndexBase(IIndexStorage storage, Config config) {
+		super(storage, config);
+	}
+
+	@Override
+	public boolean keyExists(String key, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			VALIDATE(key);
+			String colName = getColNameForKey(key);
+			if (!bloomFilterMightContain(colName))
+				return false;
+			byte[] storedColName = colName.getBytes(UTF8);
+			return storage.getColumnCount(config.idxColumnFamily, getKeyRowKey(colName), storedColName, storedColName, 100, cLevel) == 1;
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.KEY_EXISTS, startedAt);
+		}
+	}
+
+	@Override
+	public Set<String> keysExist(Collection<String> keys, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			for (String key : keys)
+				VALIDATE(key);
+			return getExistingKeys(keys, cLevel);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.KEYS_EXIST, startedAt);
+		}
+	}
+
+	@Override
+	public void writeKey(String key, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			VALIDATE(key);
+			BatchMutator batch = new BatchMutator(cLevel);
+			addKeyWrite(batch, key);
+			batch.flush();
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.WRITE_KEY, startedAt);
+		}
+	}
+
+	@Override
+	public void deleteKey(String key, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			VALIDATE(key);
+			BatchMutator batch = new BatchMutator(cLevel);
+			addKeyDeletion(batch, key);
+			batch.flush();
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.DELETE_KEY, startedAt);
+		}
+	}
+
+	@Override
+	public void writeKeys(Collection<String> keys, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			for (String key : keys)
+				VALIDATE(key);
+			BatchMutator batch = new BatchMutator(cLevel);
+			for (String key : keys)
+				addKeyWrite(batch, key);
+			batch.flush();
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.WRITE_KEYS, startedAt);
+		}
+	}
+
+	@Override
+	public void deleteKeys(Collection<String> keys, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			for (String key : keys)
+				VALIDATE(key);
+			BatchMutator batch = new BatchMutator(cLevel);
+			for (String key : keys)
+				addKeyDeletion(batch, key);
+			batch.flush();
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.DELETE_KEYS, startedAt);
+		}
+	}
+
+	/**
+	 * Add the mutation writing a key to a batch. The key must already have been validated.
+	 */
+	protected void addKeyWrite(BatchMutator batch, String key) throws Exception {
+		String colName = getColNameForKey(key);
+		String rowKey = getKeyRowKey(colName);
+		batch.nextMutation(rowKey).writeColumn(config.idxColumnFamily, rowKey, colName.getBytes(UTF8), getColValueForKey(key));
+		batch.keyWritten(colName);
+	}
+
+	/**
+	 * Add the mutation deleting a key to a batch. The key must already have been validated.
+	 */
+	protected void addKeyDeletion(BatchMutator batch, String key) throws Exception {
+		String colName = getColNameForKey(key);
+		String rowKey = getKeyRowKey(colName);
+		batch.nextMutation(rowKey).deleteColumn(config.idxColumnFamily, rowKey, colName.getBytes(UTF8));
+	}
+
+	/**
+	 * Get the value stored in the column of a key. By default columns hold no value, the key being its name.
+	 */
+	protected byte[] getColValueForKey(String key) {
+		return EMPTY_BYTES;
+	}
+
+	@Override
+	public IKeyIterator getIterator(String requiredPrefix, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		VALIDATE(requiredPrefix);
+		return withPrefetching(new KeyIterator(getColNameForKey(requiredPrefix), reversed, maxPageSize, cLevel));
+	}
+
+	@Override
+	public String[] getPage(String requiredPrefix, String startKey, boolean includeStartKey, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		return getKeyPage(requiredPrefix, startKey, includeStartKey, reversed, maxPageSize, cLevel).getKeys();
+	}
+
+	@Override
+	public KeyPage getKeyPage(String requiredPrefix, String startKey, boolean includeStartKey, boolean reversed, int maxPageSize, ConsistencyLevel cLevel) throws Exception {
+		long startedAt = operationStarted();
+		try {
+			VALIDATE(requiredPrefix);
+			byte[] startColName = startKey != null ? getColNameForKey(startKey).getBytes(UTF8) : null;
+			return readKeyPage(getColNameForKey(requiredPrefix), startColName, includeStartKey, reversed, maxPageSize, cLevel);
+		} finally {
+			operationCompleted(IIndexMetrics.Operation.GET_PAGE, startedAt);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.scale7.cassyndex;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Encodes the binary postings of a full text index, which map a term to an item as a column name. A posting is the
+ * UTF-8 bytes of the term, a terminator byte, a tag byte giving the encoding of the item id, then the item id. Item
+ * ids in the canonical lower case form of a UUID are held as their 16 bytes, and other ids as their UTF-8 bytes.
+ * Every id has exactly one encoding, so postings of the same item can be matched by comparing bytes.
+ *
+ * The terminator is 0xFF, which never occurs in UTF-8, so the terminator ends the term unambiguously and sorts after
+ * every character. The postings of a term and of the longer terms it prefixes are therefore contiguous, with the
+ * exact postings of the term last, as with string postings. Since 0xFF is not valid UTF-8, postings can only be
+ * stored in column families using the BytesType comparator.
+ *
+ * Postings of a term are ordered by their encoded item ids, which puts the ids in UUID form after all others.
+ * ITEM_ID_ORDER gives the same order for item ids as strings.
+ */
+class PostingCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	static final byte TERM_TERMINATOR = (byte)0xFF;
+	private static final byte ID_TAG_UTF8 = 0;
+	private static final byte ID_TAG_UUID = 1;
+	private static final int UUID_LENGTH = 36;
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Orders item ids as their encodings do. Ids not in UUID form come first, in the order of their UTF-8 bytes,
+	 * which is code point order. Ids in UUID form follow, and their hex digits order as the bytes they encode.
+	 */
+	static final Comparator<String> ITEM_ID_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String itemId1, String itemId2) {
+			boolean isUuid1 = isCanonicalUuid(itemId1);
+			if (isUuid1 != isCanonicalUuid(itemId2))
+				return isUuid1 ? 1 : -1;
+			if (isUuid1)
+				return itemId1.compareTo(itemId2);
+			int i1 = 0, i2 = 0;
+			while (i1 < itemId1.length() && i2 < itemId2.length()) {
+				int c1 = itemId1.codePointAt(i1);
+				int c2 = itemId2.codePointAt(i2);
+				if (c1 != c2)
+					return c1 < c2 ? -1 : 1;
+				i1 += Character.charCount(c1);
+				i2 += Character.charCount(c2);
+			}
+			return i1 < itemId1.length() ? 1 : (i2 < itemId2.length() ? -1 : 0);
+		}
+	};
+
+	static byte[] encode(String term, String itemId) {
+		byte[] termBytes = term.getBytes(UTF8);
+		byte[] posting;
+		int idOffset = termBytes.length + 2;
+		if (isCanonicalUuid(itemId)) {
+			posting = new byte[idOffset + 16];
+			posting[idOffset - 1] = ID_TAG_UUID;
+			for (int i=0, b=idOffset; i<UUID_LENGTH; i+=2) {
+				if (itemId.charAt(i) == '-')
+					i++;
+				posting[b++] = (byte)((Character.digit(itemId.charAt(i), 16) << 4) | Character.digit(itemId.charAt(i+1), 16));
+			}
+		} else {
+			byte[] idBytes = itemId.getBytes(UTF8);
+			posting = new byte[idOffset + idBytes.length];
+			posting[idOffset - 1] = ID_TAG_UTF8;
+			System.arraycopy(idBytes, 0, posting, idOffset, idBytes.length);
+		}
+		System.arraycopy(termBytes, 0, posting, 0, termBytes.length);
+		posting[termBytes.length] = TERM_TERMINATOR;
+		return posting;
+	}
+
+	/**
+	 * @return The length in bytes of the term of a posting, or -1 if the posting is malformed
+	 */
+	static int getTermLength(byte[] posting) {
+		for (int i=0; i<posting.length; i++)
+			if (posting[i] == TERM_TERMINATOR)
+				return posting.length - i > 2 ? i : -1;
+		return -1;
+	}
+
+	/**
+	 * Decode the item id of a posting.
+	 * @param idTagOffset The offset of the item id tag, which follows the terminator
+	 */
+	static String decodeItemId(byte[] posting, int idTagOffset) {
+		if (posting[idTagOffset] == ID_TAG_UUID) {
+			char[] chars = new char[UUID_LENGTH];
+			for (int i=0, b=idTagOffset+1; i<UUID_LENGTH; i+=2) {
+				if (i == 8 || i == 13 || i == 18 || i == 23)
+					chars[i++] = '-';
+				chars[i] = HEX_CHARS[(posting[b] >> 4) & 0xF];
+				chars[i+1] = HEX_CHARS[posting[b++] & 0xF];
+			}
+			return new String(chars);
+		}
+		return new String(posting, idTagOffset + 1, posting.length - idTagOffset - 1, UTF8);
+	}
+
+	/**
+	 * @return The first column name of the postings of a term and the terms it prefixes
+	 */
+	static byte[] getPrefixStart(String term) {
+		return term.getBytes(UTF8);
+	}
+
+	/**
+	 * @return The last column name of the postings of the terms a term prefixes, excluding the term itself
+	 */
+	static byte[] getLongerTermsStop(String term) {
+		return appendTerminators(term.getBytes(UTF8), 1);
+	}
+
+	/**
+	 * @return The first column name of the postings of exactly a term
+	 */
+	static byte[] getExactStart(String term) {
+		return appendTerminators(term.getBytes(UTF8), 1);
+	}
+
+	/**
+	 * @return The last column name of the postings of a term, including those of the terms it prefixes
+	 */
+	static byte[] getPrefixStop(String term) {
+		// Tag bytes are less than the terminator
+		return appendTerminators(term.getBytes(UTF8), 2);
+	}
+
+	private static byte[] appendTerminators(byte[] termBytes, int count) {
+		byte[] result = Arrays.copyOf(termBytes, termBytes.length + count);
+		Arrays.fill(result, termBytes.length, result.length, TERM_TERMINATOR);
+		return result;
+	}
+
+	private static boolean isCanonicalUuid(String itemId) {
+		if (itemId.length() != UUID_LENGTH)
+			return false;
+		for (int i=0; i<UUID_LENGTH; i++) {
+			char c = itemId.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-')
+					return false;
+			} else if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,38 @@
+package org.scale7.cassyndex;
+
+/**
+ * A page of the postings read for a search term, in the format the index stores them in: either compound key
+ * strings, or binary column names encoded by PostingCodec.
+ */
+class PostingPage {
+
+	final String[] keys; // the compound keys, if postings are stored as strings
+	final byte[][] postings; // the binary postings, if postings are stored in binary
+
+	PostingPage(String[] keys) {
+		this.keys = keys;
+		this.postings = null;
+	}
+
+	PostingPage(byte[][] postings) {
+		this.keys = null;
+		this.postings = postings;
+	}
+
+	int size() {
+		return keys != null ? keys.length : postings.length;
+	}
+
+	/**
+	 * @return The item id of a posting, or null if the posting is malformed
+	 */
+	String getItemId(int idx) {
+		if (keys != null) {
+			String key = keys[idx];
+			int divider = key.indexOf(FullTextIndex.TERM_TO_ENTRYID_SEPARATOR);
+			return divider > 0 && divider < key.length()-1 ? key.substring(divider+1) : null;
+		}
+		int termLength = PostingCodec.getTermLength(postings[idx]);
+		return termLength > 0 ? PostingCodec.decodeItemId(postings[idx], termLength+1) : null;
+	}
+}
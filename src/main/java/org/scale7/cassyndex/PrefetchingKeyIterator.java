@@ -0,0 +1,59 @@
+package org.scale7.cassyndex;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Wraps a key iterator so that pages are fetched in the background ahead of the caller. While the caller
+ * processes page n, pages up to n + depth are retrieved, which hides most of the network latency when
+ * iterating over long ranges of keys. Pages are fetched one at a time and in order, so at most one thread
+ * is occupied by the iterator at any moment. A caller that stops before the iterator is exhausted should close
+ * it, so that no further pages are fetched. IKeyIterator has no close(), so callers that may be handed either
+ * kind of iterator check for this class.
+ */
+public class PrefetchingKeyIterator implements IKeyIterator {
+
+	private final PrefetchingPageIterator<String[]> pages;
+
+	/**
+	 * @param source The iterator to prefetch pages from
+	 * @param depth The maximum number of pages to fetch ahead of the caller
+	 * @param executor The executor to fetch pages on
+	 */
+	public PrefetchingKeyIterator(final IKeyIterator source, int depth, Executor executor) {
+		pages = new PrefetchingPageIterator<String[]>(new IPageIterator<String[]>() {
+			@Override
+			public boolean hasNext() throws Exception {
+				return source.hasNext();
+			}
+
+			@Override
+			public String[] next() throws Exception {
+				return source.next();
+			}
+
+			@Override
+			public void close() {
+				if (source instanceof PrefetchingKeyIterator)
+					((PrefetchingKeyIterator)source).close();
+			}
+		}, depth, executor);
+	}
+
+	@Override
+	public boolean hasNext() throws Exception {
+		return pages.hasNext();
+	}
+
+	@Override
+	public String[] next() throws Exception {
+		return pages.next();
+	}
+
+	/**
+	 * Stop iterating, abandoning any pages being fetched in the background. An iterator that is read until it is
+	 * exhausted need not be closed.
+	 */
+	public void close() {
+		pages.close();
+	}
+}
@@ -0,0 +1,135 @@
+package org.scale7.cassyndex;
+
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Wraps a page iterator so that pages are fetched in the background ahead of the caller. While the caller
+ * processes page n, pages up to n + depth are retrieved, which hides most of the network latency when
+ * iterating over long ranges. Pages are fetched one at a time and in order, so at most one thread is occupied
+ * by the iterator at any moment. Closing the iterator cancels a fetch that has not started, and discards the
+ * page of one in progress.
+ */
+class PrefetchingPageIterator<T> implements IPageIterator<T> {
+
+	private final IPageIterator<T> source;
+	private final int depth;
+	private final Executor executor;
+	private final LinkedList<T> pages = new LinkedList<T>();
+	private boolean fetching = false; // a fetch has been scheduled and has not finished
+	private boolean fetchRunning = false; // the scheduled fetch is reading from the source
+	private boolean exhausted = false;
+	private boolean closed = false;
+	private Exception failure;
+	private FutureTask<Void> pendingFetch;
+
+	/**
+	 * @param source The iterator to prefetch pages from
+	 * @param depth The maximum number of pages to fetch ahead of the caller
+	 * @param executor The executor to fetch pages on
+	 */
+	PrefetchingPageIterator(IPageIterator<T> source, int depth, Executor executor) {
+		if (depth < 1)
+			throw new IllegalArgumentException("The prefetch depth must be at least 1");
+		this.source = source;
+		this.depth = depth;
+		this.executor = executor;
+		synchronized (this) {
+			scheduleFetch();
+		}
+	}
+
+	@Override
+	public synchronized boolean hasNext() throws Exception {
+		scheduleFetch();
+		while (pages.isEmpty() && !exhausted && failure == null && !closed)
+			wait();
+		if (closed)
+			return false;
+		if (!pages.isEmpty())
+			return true;
+		if (failure != null)
+			throw failure;
+		return false;
+	}
+
+	@Override
+	public synchronized T next() throws Exception {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		T page = pages.removeFirst();
+		scheduleFetch();
+		return page;
+	}
+
+	@Override
+	public void close() {
+		boolean closeSource;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			pages.clear();
+			// A fetch reading from the source closes it once it has finished with it
+			closeSource = !fetchRunning;
+			if (fetching && !fetchRunning) {
+				pendingFetch.cancel(false);
+				fetching = false;
+			}
+			notifyAll();
+		}
+		if (closeSource)
+			source.close();
+	}
+
+	// Must be called holding the lock
+	private void scheduleFetch() {
+		if (fetching || exhausted || closed || failure != null || pages.size() >= depth)
+			return;
+		fetching = true;
+		pendingFetch = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+				fetch();
+			}
+		}, null);
+		executor.execute(pendingFetch);
+	}
+
+	private void fetch() {
+		synchronized (this) {
+			if (closed)
+				return;
+			fetchRunning = true;
+		}
+		// The source is only ever used by one fetch at a time, so it is read without holding the lock
+		T page = null;
+		Exception fetchFailure = null;
+		try {
+			if (source.hasNext())
+				page = source.next();
+		} catch (Exception ex) {
+			fetchFailure = ex;
+		}
+		synchronized (this) {
+			fetching = false;
+			fetchRunning = false;
+			pendingFetch = null;
+			if (!closed) {
+				if (fetchFailure != null)
+					failure = fetchFailure;
+				else if (page != null)
+					pages.add(page);
+				else
+					exhausted = true;
+				scheduleFetch();
+				notifyAll();
+				return;
+			}
+		}
+		// Closed while the page was being fetched
+		source.close();
+	}
+}
@@ -0,0 +1,362 @@
+package org.scale7.cassyndex;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.scale7.cassyndex.FullTextIndex.ItemRecord;
+import org.scale7.cassyndex.FullTextIndex.ItemUpdate;
+import org.scale7.cassyndex.KeyIndexBase.BatchMutator;
+import org.scale7.portability.SystemProxy;
+import org.slf4j.Logger;
+
+/**
+ * Indexes every item of a full text index again from its stored original text, so that changes to the block
+ * words or tokenizer can be applied to existing items. The item record rows are read in token order, with the
+ * token space split into segments that are scanned in parallel. The items of each page of rows read are written
+ * back together, in batches of at most the index's maximum batch size, and the position reached in each segment
+ * is saved to an optional checkpoint once its page has been written, so a re-index that is interrupted can be
+ * resumed without starting again. Tokens are those of the RandomPartitioner, so a re-index refuses to run against
+ * a cluster using any other partitioner, under which the token ranges would skip rows.
+ *
+ * Items written while a re-index runs are indexed by the current configuration anyway, but an item updated at the
+ * same moment its row is re-indexed may be indexed against the text the re-index read. Entries left by an earlier
+ * tokenizer can only be removed for items that have stored term lists.
+ */
+public class Reindexer {
+
+	final Logger logger = SystemProxy.getLoggerFromFactory(Reindexer.class);
+
+	// An item record row holds its original text and term list, and nothing else
+	private static final int ITEM_RECORD_COLUMNS = 2;
+
+	public static class Config {
+
+		protected int segmentCount = 16;
+		protected int parallelism = 4;
+		protected int rowPageSize = 100;
+		protected int maxItemsPerSecond = 0;
+		protected IReindexCheckpoint checkpoint;
+
+		/**
+		 * Set the number of token range segments the item records are split into. A re-index can only be resumed
+		 * from a checkpoint with the same number of segments.
+		 * @param segmentCount
+		 */
+		public void setSegmentCount(int segmentCount) {
+			if (segmentCount < 1)
+				throw new IllegalArgumentException("The segment count must be at least 1");
+			this.segmentCount = segmentCount;
+		}
+
+		/**
+		 * Set the number of segments that are re-indexed at once.
+		 * @param parallelism
+		 */
+		public void setParallelism(int parallelism) {
+			if (parallelism < 1)
+				throw new IllegalArgumentException("The parallelism must be at least 1");
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * Set the number of rows read at a time from a segment. The items of each page are written back together.
+		 * @param rowPageSize
+		 */
+		public void setRowPageSize(int rowPageSize) {
+			if (rowPageSize < 1)
+				throw new IllegalArgumentException("The row page size must be at least 1");
+			this.rowPageSize = rowPageSize;
+		}
+
+		/**
+		 * Set the maximum rate at which items are re-indexed across all segments, so that a re-index does not
+		 * starve the live workload of the cluster. Zero, the default, leaves the rate unlimited.
+		 * @param maxItemsPerSecond
+		 */
+		public void setMaxItemsPerSecond(int maxItemsPerSecond) {
+			if (maxItemsPerSecond < 0)
+				throw new IllegalArgumentException("The maximum items per second cannot be negative");
+			this.maxItemsPerSecond = maxItemsPerSecond;
+		}
+
+		/**
+		 * Set where the position reached in each segment is recorded. Without a checkpoint a re-index always
+		 * starts from the beginning.
+		 * @param checkpoint
+		 */
+		public void setCheckpoint(IReindexCheckpoint checkpoint) {
+			this.checkpoint = checkpoint;
+		}
+	}
+
+	private final FullTextIndex index;
+	private final Config config;
+	private final IReindexListener listener;
+	private final ConsistencyLevel cLevel;
+	private final Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+	private final AtomicInteger nextSegment = new AtomicInteger();
+	private final AtomicInteger completedSegmentCount = new AtomicInteger();
+	private final AtomicBoolean aborted = new AtomicBoolean(false);
+	private final AtomicLong scannedCount = new AtomicLong();
+	private final AtomicLong reindexedCount = new AtomicLong();
+	private final Object throttleLock = new Object();
+	private long nextPermitAt = 0;
+	private BigInteger[] segmentBoundaries;
+
+	public Reindexer(FullTextIndex index, Config config, IReindexListener listener, ConsistencyLevel cLevel) {
+		this.index = index;
+		this.config = config;
+		this.listener = listener;
+		this.cLevel = cLevel;
+	}
+
+	/**
+	 * Re-index all items, returning once every segment has been completed. A failure to read a segment aborts the
+	 * re-index: the other segments in progress stop at the end of their current page, leaving the checkpoint at
+	 * the position reached, and the failure is thrown once they have all stopped. A re-indexer may be run again
+	 * once a run has returned, such as to resume after a failure, and each run counts its progress afresh.
+	 * @return The items that could not be re-indexed, mapping item ids to the failure encountered
+	 * @throws IllegalStateException If the cluster does not use the RandomPartitioner
+	 * @throws Exception
+	 */
+	public synchronized Map<String, Exception> run() throws Exception {
+		String partitioner = index.storage.getPartitioner();
+		if (!RowTokens.PARTITIONER.equals(partitioner))
+			throw new IllegalStateException("Re-indexing requires the RandomPartitioner, not: " + partitioner);
+		segmentBoundaries = RowTokens.split(config.segmentCount);
+		nextSegment.set(0);
+		completedSegmentCount.set(0);
+		aborted.set(false);
+		scannedCount.set(0);
+		reindexedCount.set(0);
+		failures.clear();
+		List<Future<Void>> workers = new ArrayList<Future<Void>>(config.parallelism);
+		for (int i=0; i<Math.min(config.parallelism, config.segmentCount); i++)
+			workers.add(index.getExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						int segment = nextSegment.getAndIncrement();
+						while (segment < config.segmentCount && !aborted.get()) {
+							reindexSegment(segment);
+							segment = nextSegment.getAndIncrement();
+						}
+						return null;
+					} catch (Exception ex) {
+						// Stop the other workers at the end of their current page
+						aborted.set(true);
+						throw ex;
+					}
+				}
+			}));
+
+		// Wait for every worker to stop by itself rather than interrupting them, so that none is stopped between
+		// writing a page and saving its checkpoint
+		Exception failure = null;
+		for (Future<Void> worker : workers) {
+			try {
+				worker.get();
+			} catch (ExecutionException ex) {
+				if (failure == null)
+					failure = ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex;
+			} catch (InterruptedException ex) {
+				aborted.set(true);
+				if (failure == null)
+					failure = ex;
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return new HashMap<String, Exception>(failures);
+	}
+
+	/**
+	 * @return The number of item record rows read so far
+	 */
+	public long getScannedCount() {
+		return scannedCount.get();
+	}
+
+	/**
+	 * @return The number of items re-indexed so far
+	 */
+	public long getReindexedCount() {
+		return reindexedCount.get();
+	}
+
+	/**
+	 * @return The number of items that could not be re-indexed so far
+	 */
+	public int getFailedCount() {
+		return failures.size();
+	}
+
+	/**
+	 * @return The number of segments completed so far, including those an earlier run completed, as recorded in
+	 * the checkpoint
+	 */
+	public int getCompletedSegmentCount() {
+		return completedSegmentCount.get();
+	}
+
+	private void reindexSegment(int segment) throws Exception {
+		String endToken = segmentBoundaries[segment + 1].toString();
+		String startToken = null;
+		if (config.checkpoint != null)
+			startToken = config.checkpoint.load(config.segmentCount, segment);
+		if (startToken == null)
+			startToken = segmentBoundaries[segment].toString();
+		else if (startToken.equals(endToken))
+			completedSegmentCount.incrementAndGet();
+
+		while (!startToken.equals(endToken) && !aborted.get()) {
+			Map<String, List<Column>> rows = index.storage.getTokenRange(index.config.idxColumnFamily,
+				startToken, endToken, config.rowPageSize, ITEM_RECORD_COLUMNS, cLevel);
+			List<ItemUpdate> updates = new ArrayList<ItemUpdate>(rows.size());
+			String lastRowKey = null;
+			for (Map.Entry<String, List<Column>> row : rows.entrySet()) {
+				lastRowKey = row.getKey();
+				if (!lastRowKey.startsWith(FullTextIndex.ENTRY_META_DATA_KEY_PREFIX))
+					continue;
+				scannedCount.incrementAndGet();
+				String itemId = lastRowKey.substring(FullTextIndex.ENTRY_META_DATA_KEY_PREFIX.length());
+				try {
+					// Deleted items may still be returned as rows without columns
+					ItemRecord record = FullTextIndex.decodeItemRecord(row.getValue());
+					if (record != null)
+						updates.add(index.prepareReindex(itemId, record));
+				} catch (Exception ex) {
+					itemFailed(itemId, ex);
+				}
+			}
+			throttle(updates.size());
+			flush(updates);
+
+			startToken = rows.size() < config.rowPageSize ? endToken : RowTokens.getToken(lastRowKey).toString();
+			if (config.checkpoint != null)
+				config.checkpoint.save(config.segmentCount, segment, startToken);
+			if (startToken.equals(endToken))
+				completedSegmentCount.incrementAndGet();
+			if (listener != null)
+				listener.itemsReindexed(reindexedCount.get(), completedSegmentCount.get(), config.segmentCount);
+		}
+	}
+
+	private void flush(List<ItemUpdate> updates) {
+		if (updates.isEmpty())
+			return;
+		try {
+			BatchMutator mutator = index.new BatchMutator(cLevel);
+			for (ItemUpdate update : updates)
+				index.addItemUpdate(mutator, update);
+			mutator.flush();
+			reindexedCount.addAndGet(updates.size());
+		} catch (Exception batchEx) {
+			// Retry the items individually so that only the items that genuinely fail are reported
+			logger.warn("Re-index batch failed, retrying " + updates.size() + " items individually", batchEx);
+			for (ItemUpdate update : updates) {
+				try {
+					BatchMutator mutator = index.new BatchMutator(cLevel);
+					index.addItemUpdate(mutator, update);
+					mutator.flush();
+					reindexedCount.incrementAndGet();
+				} catch (Exception ex) {
+					itemFailed(update.itemId, ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait until the items may be written without exceeding the maximum rate. The wait is worked out under a lock
+	 * but taken outside it, so that segments queue for successive slots rather than for the lock.
+	 */
+	private void throttle(int itemCount) throws InterruptedException {
+		if (config.maxItemsPerSecond == 0 || itemCount == 0)
+			return;
+		long waitNanos;
+		synchronized (throttleLock) {
+			long now = System.nanoTime();
+			if (nextPermitAt == 0 || nextPermitAt - now < 0)
+				nextPermitAt = now;
+			waitNanos = nextPermitAt - now;
+			nextPermitAt += itemCount * TimeUnit.SECONDS.toNanos(1) / config.maxItemsPerSecond;
+		}
+		if (waitNanos > 0)
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+	}
+
+	private void itemFailed(String itemId, Exception ex) {
+		failures.put(itemId, ex);
+		if (listener != null)
+			listener.itemFailed(itemId, ex);
+	}
+
+	/**
+	 * Records the progress of a re-index in a row of the index column family, so that a re-index run from any
+	 * server can resume it. Each segment's position is held in its own column, named by the job, segment count and
+	 * segment, so that jobs and differently split runs do not disturb one another.
+	 */
+	public static class StoredCheckpoint implements IReindexCheckpoint {
+
+		private static final String CHECKPOINT_ROW_KEY = "__ReindexCheckpoint";
+
+		private final FullTextIndex index;
+		private final String jobName;
+		private final ConsistencyLevel cLevel;
+
+		public StoredCheckpoint(FullTextIndex index, String jobName, ConsistencyLevel cLevel) {
+			this.index = index;
+			this.jobName = jobName;
+			this.cLevel = cLevel;
+		}
+
+		@Override
+		public String load(int segmentCount, int segment) throws Exception {
+			List<byte[]> colNames = Collections.singletonList(getColName(segmentCount, segment));
+			Map<String, List<Column>> rows = index.storage.getNamedColumns(index.config.idxColumnFamily,
+				Collections.singletonList(CHECKPOINT_ROW_KEY), colNames, cLevel);
+			List<Column> columns = rows.get(CHECKPOINT_ROW_KEY);
+			if (columns == null || columns.isEmpty())
+				return null;
+			return new String(columns.get(0).getValue(), KeyIndexBase.UTF8);
+		}
+
+		@Override
+		public void save(int segmentCount, int segment, String token) throws Exception {
+			IStorageBatch batch = index.storage.createBatch();
+			byte[] colName = getColName(segmentCount, segment);
+			byte[] value = token.getBytes(KeyIndexBase.UTF8);
+			batch.writeColumn(index.config.idxColumnFamily, CHECKPOINT_ROW_KEY, colName, value);
+			batch.execute(cLevel);
+		}
+
+		/**
+		 * Forget the progress of the job, so that it runs from the beginning next time.
+		 */
+		public void clear(int segmentCount) throws Exception {
+			IStorageBatch batch = index.storage.createBatch();
+			for (int segment=0; segment<segmentCount; segment++)
+				batch.deleteColumn(index.config.idxColumnFamily, CHECKPOINT_ROW_KEY, getColName(segmentCount, segment));
+			batch.execute(cLevel);
+		}
+
+		private byte[] getColName(int segmentCount, int segment) {
+			return (jobName + "/" + segmentCount + "/" + segment).getBytes(KeyIndexBase.UTF8);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package org.scale7.cassyndex;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The tokens Cassandra's RandomPartitioner places rows by: the absolute value of the MD5 digest of the row key,
+ * in the range 0 to 2^127. Rows are stored around the ring in token order, so the token space can be split into
+ * segments that are scanned independently. As in Cassandra, the minimum token is -1, which sorts before every row.
+ */
+class RowTokens {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final String PARTITIONER = "org.apache.cassandra.dht.RandomPartitioner";
+
+	static final BigInteger MIN_TOKEN = BigInteger.ONE.negate();
+	static final BigInteger MAX_TOKEN = BigInteger.ONE.shiftLeft(127);
+
+	static BigInteger getToken(String rowKey) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(rowKey.getBytes(UTF8));
+			return new BigInteger(digest).abs();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Split the token space into equal segments.
+	 * @return The segmentCount + 1 boundaries of the segments. Segment i holds the tokens greater than boundary i
+	 * and no greater than boundary i + 1
+	 */
+	static BigInteger[] split(int segmentCount) {
+		BigInteger[] boundaries = new BigInteger[segmentCount + 1];
+		BigInteger count = BigInteger.valueOf(segmentCount);
+		boundaries[0] = MIN_TOKEN;
+		for (int i=1; i<=segmentCount; i++)
+			boundaries[i] = MAX_TOKEN.multiply(BigInteger.valueOf(i)).divide(count);
+		return boundaries;
+	}
+}
@@ -0,0 +1,328 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * Returns the items matching a search in rank order, reading postings only until the rank of the next items is
+ * certain. Each term matches an item either exactly (strength 4 for a word, 2 for a word pair) or as a prefix of
+ * a longer term (2 or 1). The exact postings of every term are read first, then the remaining postings, so at any
+ * point the strength an item can still gain from each term is bounded. An item is returned once its own score is
+ * known and no other item, including those not yet seen, can score more. Once any single word term has been read
+ * completely, no unseen item can match every word term, so only the items already seen are tracked from then on.
+ * Items of equal score are returned in item id order, as by findItems(), so an item is held back while an item
+ * with a lower id could still reach the same score.
+ *
+ * The strength that remains to be read for a term only changes when its scan moves on to the next range, so the
+ * most a candidate can score only changes then too. Each page of postings therefore only updates the candidates
+ * it names. Candidates whose score is still uncertain are grouped by the most they can score, which gives the
+ * threshold a certain score must reach, and those whose score is certain wait in a queue in rank order. Items that
+ * have been returned are remembered only while new items can still be found, to avoid returning them twice.
+ */
+class SearchIterator implements ISearchIterator {
+
+	private final FullTextIndex index;
+	private final int termCount;
+	private final List<TermScan> scans = new ArrayList<TermScan>();
+	private final int maxPageSize;
+	private final ConsistencyLevel cLevel;
+	private final int[] remainingMatchStrengths; // the strongest match against each term that remains to be read
+	private final Map<String, Candidate> candidates = new HashMap<String, Candidate>(); // candidates not yet returned
+	private final Comparator<String> itemIdOrder; // the order of items of equal score
+	private final List<TreeSet<String>> uncertainIds; // the candidates whose score is uncertain, by the most they can score
+	private final PriorityQueue<Candidate> certain;
+	private final LinkedList<Candidate> ready = new LinkedList<Candidate>();
+	private Set<String> returned = new HashSet<String>(); // null once no new candidates are possible
+	private boolean newCandidatesPossible = true;
+	private int nextScan = 0;
+	private int candidatesSeen = 0;
+	private int termPageCount = 0;
+	private int termColumnCount = 0;
+	private boolean finished = false;
+
+	SearchIterator(FullTextIndex index, String[] terms, int maxPageSize, ConsistencyLevel cLevel) {
+		this.index = index;
+		this.maxPageSize = maxPageSize;
+		this.cLevel = cLevel;
+		termCount = terms.length;
+		TermScan[] termScans = new TermScan[terms.length]; // null where the term is too short to search
+		// Repeated terms only need scanning once
+		Map<String, TermScan> scansByTerm = new LinkedHashMap<String, TermScan>();
+		for (int t=0; t<terms.length; t++) {
+			if (!index.termIndex.isValidKeyPrefix(terms[t]))
+				continue;
+			TermScan scan = scansByTerm.get(terms[t]);
+			if (scan == null) {
+				scan = new TermScan(terms[t], index.isOneWordSearchTerm(terms[t]));
+				scansByTerm.put(terms[t], scan);
+				scans.add(scan);
+			}
+			scan.termIdxs.add(t);
+			termScans[t] = scan;
+		}
+		remainingMatchStrengths = new int[terms.length];
+		for (int t=0; t<terms.length; t++)
+			remainingMatchStrengths[t] = getRemainingMatchStrength(termScans[t]);
+		itemIdOrder = index.getItemIdOrder();
+		int unseenMaxScore = getUnseenMaxScore();
+		uncertainIds = new ArrayList<TreeSet<String>>(unseenMaxScore + 1);
+		for (int maxScore=0; maxScore<=unseenMaxScore; maxScore++)
+			uncertainIds.add(new TreeSet<String>(itemIdOrder));
+		certain = new PriorityQueue<Candidate>(64, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate c1, Candidate c2) {
+				if (c1.score != c2.score)
+					return c1.score > c2.score ? -1 : 1;
+				return itemIdOrder.compare(c1.itemId, c2.itemId);
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() throws Exception {
+		while (ready.isEmpty() && !finished) {
+			readPage();
+			collectReadyCandidates();
+		}
+		return !ready.isEmpty();
+	}
+
+	@Override
+	public String[] next() throws Exception {
+		long startedAt = index.operationStarted();
+		try {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String[] result = new String[ready.size()];
+			for (int i=0; i<result.length; i++)
+				result[i] = ready.removeFirst().itemId;
+			return result;
+		} finally {
+			index.operationCompleted(IIndexMetrics.Operation.SEARCH_ITERATOR_PAGE, startedAt);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (TermScan scan : scans) {
+			if (scan.postings != null) {
+				scan.postings.close();
+				scan.postings = null;
+			}
+		}
+		finished = true;
+	}
+
+	/**
+	 * Read the next page of postings. Exact postings are read for all terms in turn before any others.
+	 */
+	private void readPage() throws Exception {
+		TermScan scan = null;
+		for (int i=0; i<scans.size() && scan == null; i++) {
+			TermScan candidate = scans.get((nextScan + i) % scans.size());
+			if (!candidate.exactDone)
+				scan = candidate;
+		}
+		for (int i=0; i<scans.size() && scan == null; i++) {
+			TermScan candidate = scans.get((nextScan + i) % scans.size());
+			if (!candidate.allDone)
+				scan = candidate;
+		}
+		if (scan == null) {
+			finished = true;
+			IIndexMetrics metrics = index.config.metrics;
+			if (metrics != null)
+				metrics.searchCompleted(termPageCount, termColumnCount, candidatesSeen);
+			return;
+		}
+		nextScan = (scans.indexOf(scan) + 1) % scans.size();
+
+		if (scan.postings == null)
+			scan.postings = index.getPostingIterator(scan.term, scan.exactDone ? FullTextIndex.PostingRange.LONGER : FullTextIndex.PostingRange.EXACT, maxPageSize, cLevel);
+		if (scan.postings.hasNext()) {
+			processPage(scan, scan.postings.next());
+		} else {
+			if (scan.exactDone)
+				scan.allDone = true;
+			else
+				scan.exactDone = true;
+			scan.postings = null;
+			rangeCompleted(scan);
+		}
+	}
+
+	private void processPage(TermScan scan, PostingPage page) {
+		termPageCount++;
+		termColumnCount += page.size();
+		// Every posting of the range being read matches the term equally strongly
+		int matchStrength = getRemainingMatchStrength(scan);
+		for (int i=0; i<page.size(); i++) {
+			String itemId = page.getItemId(i);
+			if (itemId == null)
+				continue;
+			Candidate candidate = candidates.get(itemId);
+			if (candidate == null) {
+				if (!newCandidatesPossible || returned.contains(itemId))
+					continue;
+				candidate = new Candidate(itemId, termCount);
+				candidatesSeen++;
+				// A new candidate has matched nothing yet, so it falls short of every term that remains
+				candidate.maxScore = getUnseenMaxScore();
+				for (int t=0; t<termCount; t++)
+					if (remainingMatchStrengths[t] > 0)
+						candidate.shortfallCount++;
+				candidates.put(itemId, candidate);
+				uncertainIds.get(candidate.maxScore).add(itemId);
+			}
+			if (candidate.certain)
+				continue;
+			for (int t : scan.termIdxs) {
+				// The remaining strength of the term is the strength of this match, so a stronger match than the
+				// candidate had meets it, and the most the candidate can score is unchanged
+				if (matchStrength > candidate.matchStrengths[t]) {
+					candidate.score += matchStrength - candidate.matchStrengths[t];
+					candidate.matchStrengths[t] = (byte)matchStrength;
+					candidate.shortfallCount--;
+				}
+			}
+			if (candidate.shortfallCount == 0) {
+				uncertainIds.get(candidate.maxScore).remove(itemId);
+				scoreCertain(candidate);
+			}
+		}
+	}
+
+	/**
+	 * Account for a scan having read the whole of a range, which lowers the strength that remains for its terms,
+	 * and so the most each uncertain candidate can score.
+	 */
+	private void rangeCompleted(TermScan scan) {
+		int oldRemaining = remainingMatchStrengths[scan.termIdxs.get(0)];
+		int newRemaining = getRemainingMatchStrength(scan);
+		for (int t : scan.termIdxs)
+			remainingMatchStrengths[t] = newRemaining;
+		if (scan.isOneWordTerm && scan.allDone) {
+			newCandidatesPossible = false;
+			returned = null;
+		}
+
+		for (Iterator<Candidate> i = candidates.values().iterator(); i.hasNext();) {
+			Candidate candidate = i.next();
+			if (candidate.certain)
+				continue;
+			uncertainIds.get(candidate.maxScore).remove(candidate.itemId);
+			boolean eliminated = false;
+			for (int t : scan.termIdxs) {
+				int matchStrength = candidate.matchStrengths[t];
+				// Items must hit every single word term
+				if (matchStrength == 0 && newRemaining == 0 && scan.isOneWordTerm)
+					eliminated = true;
+				if (matchStrength < oldRemaining && matchStrength >= newRemaining)
+					candidate.shortfallCount--;
+				candidate.maxScore += Math.max(matchStrength, newRemaining) - Math.max(matchStrength, oldRemaining);
+			}
+			if (eliminated)
+				i.remove();
+			else if (candidate.shortfallCount == 0)
+				scoreCertain(candidate);
+			else
+				uncertainIds.get(candidate.maxScore).add(candidate.itemId);
+		}
+	}
+
+	// Move a candidate that has met the remaining strength of every term, so that its score is now the most it
+	// can score, to the queue of certain scores
+	private void scoreCertain(Candidate candidate) {
+		candidate.certain = true;
+		certain.add(candidate);
+	}
+
+	/**
+	 * Move the candidates whose rank is certain to the ready list. A certain candidate is ready once no other item
+	 * can score more, and no item with a lower id can score as much. The id of an item not yet seen is unknown, so
+	 * a certain candidate must score more than any unseen item could.
+	 */
+	private void collectReadyCandidates() {
+		int unseenMaxScore = newCandidatesPossible ? getUnseenMaxScore() : -1;
+		int uncertainMaxScore = -1;
+		for (int maxScore=uncertainIds.size()-1; maxScore>=0; maxScore--) {
+			if (!uncertainIds.get(maxScore).isEmpty()) {
+				uncertainMaxScore = maxScore;
+				break;
+			}
+		}
+
+		while (!certain.isEmpty()) {
+			Candidate candidate = certain.peek();
+			if (candidate.score < uncertainMaxScore || candidate.score <= unseenMaxScore)
+				break;
+			if (candidate.score == uncertainMaxScore
+					&& itemIdOrder.compare(candidate.itemId, uncertainIds.get(uncertainMaxScore).first()) > 0)
+				break;
+			certain.poll();
+			ready.add(candidate);
+			candidates.remove(candidate.itemId);
+			if (returned != null)
+				returned.add(candidate.itemId);
+		}
+	}
+
+	private int getUnseenMaxScore() {
+		int maxScore = 0;
+		for (int t=0; t<termCount; t++)
+			maxScore += remainingMatchStrengths[t];
+		return maxScore;
+	}
+
+	/**
+	 * Get the strongest match against a scan's terms that remains to be read.
+	 */
+	private int getRemainingMatchStrength(TermScan scan) {
+		if (scan == null || scan.allDone)
+			return 0;
+		return scan.exactDone ? scan.getMatchStrength(scan.term.length() + 1) : scan.getMatchStrength(scan.term.length());
+	}
+
+	private static class TermScan {
+		TermScan(String term, boolean isOneWordTerm) {
+			this.term = term;
+			this.isOneWordTerm = isOneWordTerm;
+		}
+		final String term;
+		final boolean isOneWordTerm;
+		final List<Integer> termIdxs = new ArrayList<Integer>(1);
+		FullTextIndex.PostingIterator postings;
+		boolean exactDone = false;
+		boolean allDone = false;
+
+		int getMatchStrength(int tokenLength) {
+			return isOneWordTerm ? FullTextIndex.getTermMatchStrength(tokenLength, term) : FullTextIndex.getTupleTermMatchStrength(tokenLength, term);
+		}
+	}
+
+	private static class Candidate {
+		Candidate(String itemId, int termCount) {
+			this.itemId = itemId;
+			this.matchStrengths = new byte[termCount];
+		}
+		final String itemId;
+		final byte[] matchStrengths;
+		int score;
+		int maxScore; // the most the candidate can score, given what remains to be read
+		int shortfallCount; // the number of terms whose remaining strength the candidate has not yet matched
+		boolean certain = false;
+	}
+}
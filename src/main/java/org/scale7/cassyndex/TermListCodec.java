@@ -0,0 +1,89 @@
+package org.scale7.cassyndex;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Encodes the list of terms an item is indexed under, for storage alongside the item. Terms are sorted and front
+ * coded: each term is stored as the number of leading characters it shares with the previous term, followed by the
+ * UTF-8 bytes of the rest of it. Each word also starts the word pairs that follow it, so sorted neighbours share
+ * prefixes and a list takes somewhat less space than its terms written out in full.
+ *
+ * Layout: format version byte, varint term count, then per term varint shared prefix length in chars, varint suffix
+ * length in bytes, suffix bytes.
+ */
+class TermListCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * @param terms The terms, which must not contain duplicates. The array is sorted in place
+	 */
+	static byte[] encode(String[] terms) {
+		Arrays.sort(terms);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(terms.length * 8 + 8);
+		out.write(FORMAT_VERSION);
+		writeVarInt(out, terms.length);
+		String prevTerm = "";
+		for (String term : terms) {
+			int sharedLength = getSharedPrefixLength(prevTerm, term);
+			byte[] suffix = term.substring(sharedLength).getBytes(UTF8);
+			writeVarInt(out, sharedLength);
+			writeVarInt(out, suffix.length);
+			out.write(suffix, 0, suffix.length);
+			prevTerm = term;
+		}
+		return out.toByteArray();
+	}
+
+	static String[] decode(byte[] encoded) {
+		int[] pos = new int[] { 0 };
+		int version = encoded[pos[0]++];
+		if (version != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unknown term list format: " + version);
+		String[] terms = new String[readVarInt(encoded, pos)];
+		String prevTerm = "";
+		for (int i=0; i<terms.length; i++) {
+			int sharedLength = readVarInt(encoded, pos);
+			int suffixLength = readVarInt(encoded, pos);
+			String suffix = new String(encoded, pos[0], suffixLength, UTF8);
+			pos[0] += suffixLength;
+			terms[i] = sharedLength == 0 ? suffix : prevTerm.substring(0, sharedLength) + suffix;
+			prevTerm = terms[i];
+		}
+		return terms;
+	}
+
+	private static int getSharedPrefixLength(String term1, String term2) {
+		int length = Math.min(term1.length(), term2.length());
+		int shared = 0;
+		while (shared < length && term1.charAt(shared) == term2.charAt(shared))
+			shared++;
+		// Never split a surrogate pair, since the suffix must be valid UTF-16 to survive encoding as UTF-8
+		if (shared > 0 && Character.isHighSurrogate(term2.charAt(shared-1)))
+			shared--;
+		return shared;
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(byte[] encoded, int[] pos) {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			int b = encoded[pos[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+			shift += 7;
+		}
+	}
+}
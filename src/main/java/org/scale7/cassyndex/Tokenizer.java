@@ -0,0 +1,108 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * Extracts search terms from text in a single pass. Text is broken into sentences at punctuation, and sentences
+ * into words at symbols and whitespace. Each word is a search term, as is each pair of consecutive words within
+ * a sentence e.g. "exam results". Words are taken straight from the text without intermediate collections, and
+ * the term buffer is reused, so a tokenizer must only be used by one thread at a time.
+ * NOTE the terms produced must never change, since they determine the keys under which existing items are indexed.
+ */
+class Tokenizer {
+
+	private static final String SENTENCE_SEPARATORS = "!(){}=[];:|\"?/<>.,";
+	// The symbol following @ was written as a raw pound sign byte in a UTF-8 source file, which compiled to the
+	// replacement character. Existing indexes were built with it, so it is kept rather than corrected
+	private static final String WORD_SEPARATORS = "@\uFFFD$%^&*+_~ \t\n\u000B\f\r";
+	private static final char WORD_SEPARATOR_ABOVE_ASCII = '\uFFFD';
+
+	private static final byte OTHER = 0;
+	private static final byte WORD_SEPARATOR = 1;
+	private static final byte SENTENCE_SEPARATOR = 2;
+	private static final byte[] ASCII_CHAR_TYPES = new byte[128];
+	static {
+		for (char c : SENTENCE_SEPARATORS.toCharArray())
+			ASCII_CHAR_TYPES[c] = SENTENCE_SEPARATOR;
+		for (char c : WORD_SEPARATORS.toCharArray())
+			if (c < 128)
+				ASCII_CHAR_TYPES[c] = WORD_SEPARATOR;
+	}
+
+	// Characters removed from words by normalization
+	static final CharMatcher NORMALIZE_REMOVE = CharMatcher.INVISIBLE.or(CharMatcher.anyOf("'"));
+
+	private final List<String> terms = new ArrayList<String>(250);
+	private final StringBuilder buffer = new StringBuilder(64);
+
+	/**
+	 * Extract the search terms from text.
+	 * @param text The text to tokenize
+	 * @param config The configuration of the index, whose block words are not returned as single word terms
+	 * @return The words and word pairs in the order they appear in the text
+	 */
+	String[] getNormalizedSearchTerms(String text, FullTextIndex.Config config) {
+		terms.clear();
+		String prevWord = null;
+		int wordStart = 0;
+		int length = text.length();
+		for (int i=0; i<=length; i++) {
+			byte charType;
+			if (i == length)
+				charType = SENTENCE_SEPARATOR;
+			else {
+				char c = text.charAt(i);
+				charType = c < 128 ? ASCII_CHAR_TYPES[c] : (c == WORD_SEPARATOR_ABOVE_ASCII ? WORD_SEPARATOR : OTHER);
+			}
+			if (charType == OTHER)
+				continue;
+
+			String word = getNormalizedWord(text, wordStart, i);
+			if (word != null) {
+				if (!config.isBlockWordPrefix(word))
+					terms.add(word);
+				if (prevWord != null) {
+					buffer.setLength(0);
+					terms.add(buffer.append(prevWord).append(' ').append(word).toString());
+				}
+				prevWord = word;
+			}
+			if (charType == SENTENCE_SEPARATOR)
+				prevWord = null;
+			wordStart = i + 1;
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	/**
+	 * Normalize the word found between separators, or return null if there is no word there.
+	 */
+	private String getNormalizedWord(String text, int start, int end) {
+		while (start < end && CharMatcher.WHITESPACE.matches(text.charAt(start)))
+			start++;
+		while (end > start && CharMatcher.WHITESPACE.matches(text.charAt(end-1)))
+			end--;
+		if (start == end)
+			return null;
+		// Double-barreled words are OK, hyphens are not
+		if (end - start == 1 && text.charAt(start) == '-')
+			return null;
+
+		int removeIdx = start;
+		while (removeIdx < end && !NORMALIZE_REMOVE.matches(text.charAt(removeIdx)))
+			removeIdx++;
+		if (removeIdx == end)
+			return text.substring(start, end).toLowerCase();
+		buffer.setLength(0);
+		buffer.append(text, start, removeIdx);
+		for (int i=removeIdx+1; i<end; i++) {
+			char c = text.charAt(i);
+			if (!NORMALIZE_REMOVE.matches(c))
+				buffer.append(c);
+		}
+		return buffer.toString().toLowerCase();
+	}
+}
@@ -0,0 +1,105 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class AsyncKeyIndexTest extends TestCase {
+
+	private final AtomicInteger threadCount = new AtomicInteger();
+	private ExecutorService executor;
+	private AsyncKeyIndex async;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				threadCount.incrementAndGet();
+				return new Thread(runnable);
+			}
+		});
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf", 2);
+		config.setAsyncExecutor(executor);
+		async = new AsyncKeyIndex(Cassyndex.createCsKeyOnlyIndex(new MemoryStorage(), config));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	public void testFuturesCompleteWithResults() throws Exception {
+		assertNull(get(async.writeKeys(Arrays.asList("apple", "apricot", "pear"), ConsistencyLevel.ONE)));
+		assertTrue(get(async.keyExists("apple", ConsistencyLevel.ONE)));
+		assertFalse(get(async.keyExists("plum", ConsistencyLevel.ONE)));
+		assertEquals(new HashSet<String>(Arrays.asList("apple", "pear")),
+			get(async.keysExist(Arrays.asList("apple", "pear", "plum"), ConsistencyLevel.ONE)));
+		assertEquals(Arrays.asList("apple", "apricot"),
+			Arrays.asList(get(async.getPage("ap", null, false, false, 10, ConsistencyLevel.ONE))));
+
+		get(async.deleteKey("apple", ConsistencyLevel.ONE));
+		assertFalse(get(async.keyExists("apple", ConsistencyLevel.ONE)));
+		// The operations ran on the executor configured for the index
+		assertTrue(threadCount.get() > 0);
+	}
+
+	public void testFailuresReportedThroughFuture() throws Exception {
+		try {
+			get(async.keyExists("a", ConsistencyLevel.ONE));
+			fail("Short key accepted");
+		} catch (ExecutionException ex) {
+			assertNotNull(ex.getCause());
+		}
+	}
+
+	public void testIteratorPagesUntilNull() throws Exception {
+		List<String> keys = new ArrayList<String>();
+		for (int n=10; n<35; n++)
+			keys.add("key" + n);
+		get(async.writeKeys(keys, ConsistencyLevel.ONE));
+
+		IKeyIterator iterator = async.getIndex().getIterator("ke", false, 10, ConsistencyLevel.ONE);
+		List<String> read = new ArrayList<String>();
+		String[] page;
+		while ((page = get(async.next(iterator))) != null)
+			read.addAll(Arrays.asList(page));
+		assertEquals(keys, read);
+	}
+
+	public void testOwnExecutorUsed() throws Exception {
+		final AtomicInteger ownThreadCount = new AtomicInteger();
+		ExecutorService own = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				ownThreadCount.incrementAndGet();
+				return new Thread(runnable);
+			}
+		});
+		try {
+			AsyncKeyIndex ownAsync = new AsyncKeyIndex(async.getIndex(), own);
+			get(ownAsync.writeKey("apple", ConsistencyLevel.ONE));
+			assertEquals(1, ownThreadCount.get());
+			assertEquals(0, threadCount.get());
+			assertTrue(get(async.keyExists("apple", ConsistencyLevel.ONE)));
+		} finally {
+			own.shutdownNow();
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws Exception {
+		return future.get(10, TimeUnit.SECONDS);
+	}
+}
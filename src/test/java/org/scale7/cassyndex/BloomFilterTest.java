@@ -0,0 +1,158 @@
+package org.scale7.cassyndex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class BloomFilterTest extends TestCase {
+
+	private ScanningStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		storage = new ScanningStorage();
+	}
+
+	public void testNoFalseNegativesForOwnWrites() throws Exception {
+		BloomFilter filter = new BloomFilter(1000, 0.01);
+		for (int i=0; i<5000; i++)
+			filter.add("key" + i);
+		for (int i=0; i<5000; i++)
+			assertTrue(filter.mightContain("key" + i));
+	}
+
+	public void testOtherWritersMissedUntilRebuild() throws Exception {
+		CaseSenKeyIndex index = createIndex();
+		CaseSenKeyIndex other = createIndex();
+		index.writeKey("apple", ConsistencyLevel.ONE);
+		index.rebuildBloomFilter(ConsistencyLevel.ONE);
+		other.writeKey("pear", ConsistencyLevel.ONE);
+
+		// Keys written by another index instance are not in this instance's filter
+		assertTrue(index.keyExists("apple", ConsistencyLevel.ONE));
+		assertFalse(index.keyExists("pear", ConsistencyLevel.ONE));
+		assertEquals(Collections.singleton("apple"), index.keysExist(Arrays.asList("apple", "pear"), ConsistencyLevel.ONE));
+
+		index.rebuildBloomFilter(ConsistencyLevel.ONE);
+		assertTrue(index.keyExists("pear", ConsistencyLevel.ONE));
+		assertEquals(new HashSet<String>(Arrays.asList("apple", "pear")),
+			index.keysExist(Arrays.asList("apple", "pear", "plum"), ConsistencyLevel.ONE));
+	}
+
+	public void testOwnWritesAndDeletesSeenWithoutRebuild() throws Exception {
+		CaseSenKeyIndex index = createIndex();
+		index.rebuildBloomFilter(ConsistencyLevel.ONE);
+		index.writeKeys(Arrays.asList("apple", "pear"), ConsistencyLevel.ONE);
+		assertTrue(index.keyExists("apple", ConsistencyLevel.ONE));
+		// Deleted keys stay in the filter, but are still checked against storage
+		index.deleteKey("apple", ConsistencyLevel.ONE);
+		assertFalse(index.keyExists("apple", ConsistencyLevel.ONE));
+		assertEquals(Collections.singleton("pear"), index.keysExist(Arrays.asList("apple", "pear"), ConsistencyLevel.ONE));
+	}
+
+	public void testWritesDuringRebuildKept() throws Exception {
+		final CaseSenKeyIndex index = createIndex();
+		index.writeKey("apple", ConsistencyLevel.ONE);
+		// The key is written once the scan has read past it, so only the write itself can add it to the new filter
+		storage.afterScan = new Runnable() {
+			@Override
+			public void run() {
+				storage.afterScan = null;
+				try {
+					index.writeKey("late", ConsistencyLevel.ONE);
+				} catch (Exception ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		};
+		index.rebuildBloomFilter(ConsistencyLevel.ONE);
+		assertTrue(index.keyExists("apple", ConsistencyLevel.ONE));
+		assertTrue(index.keyExists("late", ConsistencyLevel.ONE));
+	}
+
+	public void testFailedRebuildRetriedAfterDelay() throws Exception {
+		CaseSenKeyIndex index = createIndex();
+		index.writeKey("apple", ConsistencyLevel.ONE);
+		storage.failing = true;
+		// With no filter built, checks go to storage, and the first one starts the build
+		assertTrue(index.keyExists("apple", ConsistencyLevel.ONE));
+		assertEquals(1, storage.scanCount);
+		assertFalse(index.keyExists("pear", ConsistencyLevel.ONE));
+		assertEquals(1, storage.scanCount);
+		assertEquals(0, index.getBloomFilterSizeBytes());
+
+		storage.failing = false;
+		index.rebuildBloomFilter(ConsistencyLevel.ONE);
+		assertTrue(index.getBloomFilterSizeBytes() > 0);
+		assertTrue(index.keyExists("apple", ConsistencyLevel.ONE));
+	}
+
+	private CaseSenKeyIndex createIndex() throws Exception {
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf");
+		config.setBloomFilter(1000, 0.01, 0);
+		// Background rebuilds run on the calling thread, so that they complete before the check that started them
+		config.setExecutor(new DirectExecutor());
+		return Cassyndex.createCsKeyOnlyIndex(storage, config);
+	}
+
+	/**
+	 * Memory storage counting the row scans made by filter rebuilds, which can be made to fail.
+	 */
+	private static class ScanningStorage extends MemoryStorage {
+		volatile boolean failing;
+		volatile Runnable afterScan;
+		volatile int scanCount;
+
+		@Override
+		public Map<String, List<Column>> getRowRange(String columnFamily, String startRowKey, int maxRows, int maxColumns, ConsistencyLevel cLevel) {
+			scanCount++;
+			if (failing)
+				throw new IllegalStateException("storage unavailable");
+			Map<String, List<Column>> rows = super.getRowRange(columnFamily, startRowKey, maxRows, maxColumns, cLevel);
+			Runnable hook = afterScan;
+			if (hook != null)
+				hook.run();
+			return rows;
+		}
+	}
+
+	private static class DirectExecutor extends AbstractExecutorService {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class BufferedKeyIndexWriterTest extends TestCase {
+
+	private FailingStorage storage;
+	private PlainKeyIndexBase index;
+	private BufferedKeyIndexWriter writer;
+
+	@Override
+	protected void setUp() throws Exception {
+		storage = new FailingStorage();
+		index = Cassyndex.createCisKeyOnlyIndex(storage, new CaseInsKeyIndex.Config("cf"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		storage.failing = false;
+		if (writer != null)
+			writer.close();
+	}
+
+	public void testMutationsOfSameKeyCoalesced() throws Exception {
+		writer = createWriter(100);
+		writer.writeKey("Apple");
+		writer.deleteKey("apple");
+		writer.writeKey("APPLE");
+		writer.writeKey("pear");
+		writer.deleteKey("plum");
+		assertEquals(3, writer.getBufferedKeyCount());
+		// Nothing is visible until the buffer is flushed
+		assertEquals(Arrays.asList(), iterate("ap"));
+		writer.flush();
+		assertEquals(0, writer.getBufferedKeyCount());
+		assertEquals(3, storage.columnMutationCount);
+		assertEquals(Arrays.asList("APPLE"), iterate("ap"));
+		assertEquals(Arrays.asList("pear"), iterate("pe"));
+	}
+
+	public void testFailedFlushRebuffers() throws Exception {
+		writer = createWriter(100);
+		writer.writeKey("apple");
+		writer.writeKey("pear");
+		storage.failing = true;
+		try {
+			writer.flush();
+			fail("Failure not reported");
+		} catch (IllegalStateException ex) {
+		}
+		assertEquals(2, writer.getBufferedKeyCount());
+		storage.failing = false;
+		writer.flush();
+		assertEquals(0, writer.getBufferedKeyCount());
+		assertEquals(Arrays.asList("apple"), iterate("ap"));
+		assertEquals(Arrays.asList("pear"), iterate("pe"));
+	}
+
+	public void testMutationsMadeDuringFailedFlushKept() throws Exception {
+		writer = createWriter(100);
+		writer.writeKey("apple");
+		writer.writeKey("pear");
+		storage.failing = true;
+		// The deletion supersedes the write being flushed, so it must not be overwritten when the write is rebuffered
+		storage.beforeFailure = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writer.deleteKey("apple");
+				} catch (Exception ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		};
+		try {
+			writer.flush();
+			fail("Failure not reported");
+		} catch (IllegalStateException ex) {
+		}
+		assertEquals(2, writer.getBufferedKeyCount());
+		storage.failing = false;
+		writer.flush();
+		assertEquals(Arrays.asList(), iterate("ap"));
+		assertEquals(Arrays.asList("pear"), iterate("pe"));
+	}
+
+	public void testBufferBounded() throws Exception {
+		writer = createWriter(3);
+		writer.writeKeys(Arrays.asList("key1", "key2", "key3"));
+		assertEquals(0, storage.columnMutationCount);
+		assertEquals(3, writer.getBufferedKeyCount());
+		// Rewriting a buffered key needs no room
+		writer.writeKey("key2");
+		assertEquals(0, storage.columnMutationCount);
+		// A new key finds no room, so the caller flushes the buffer first
+		writer.writeKey("key4");
+		assertEquals(3, storage.columnMutationCount);
+		assertEquals(1, writer.getBufferedKeyCount());
+
+		writer.writeKeys(Arrays.asList("key5", "key6"));
+		storage.failing = true;
+		try {
+			writer.writeKey("key7");
+			fail("Failure not reported");
+		} catch (IllegalStateException ex) {
+		}
+		// The key that found no room was not buffered
+		assertEquals(3, writer.getBufferedKeyCount());
+		storage.failing = false;
+		writer.flush();
+		assertEquals(Arrays.asList("key1", "key2", "key3", "key4", "key5", "key6"), iterate("ke"));
+	}
+
+	private BufferedKeyIndexWriter createWriter(int maxBufferedKeys) {
+		BufferedKeyIndexWriter.Config config = new BufferedKeyIndexWriter.Config();
+		config.setMaxBufferedKeys(maxBufferedKeys);
+		config.setFlushBatchSize(1000);
+		// Keep the background flush out of the way, so that only the test flushes
+		config.setFlushIntervalMillis(60 * 60 * 1000);
+		return new BufferedKeyIndexWriter(index, config, ConsistencyLevel.ONE);
+	}
+
+	private List<String> iterate(String prefix) throws Exception {
+		List<String> result = new ArrayList<String>();
+		IKeyIterator iterator = index.getIterator(prefix, false, 100, ConsistencyLevel.ONE);
+		while (iterator.hasNext())
+			result.addAll(Arrays.asList(iterator.next()));
+		return result;
+	}
+
+	/**
+	 * Memory storage whose batches fail on demand, counting the column mutations of those that succeed.
+	 */
+	private static class FailingStorage extends MemoryStorage {
+		volatile boolean failing;
+		volatile Runnable beforeFailure;
+		int columnMutationCount;
+
+		@Override
+		public IStorageBatch createBatch() {
+			final IStorageBatch batch = super.createBatch();
+			return new IStorageBatch() {
+				int mutationCount;
+
+				@Override
+				public void writeColumn(String columnFamily, String rowKey, byte[] colName, byte[] value) {
+					batch.writeColumn(columnFamily, rowKey, colName, value);
+					mutationCount++;
+				}
+
+				@Override
+				public void deleteColumn(String columnFamily, String rowKey, byte[] colName) {
+					batch.deleteColumn(columnFamily, rowKey, colName);
+					mutationCount++;
+				}
+
+				@Override
+				public void deleteRow(String columnFamily, String rowKey) {
+					batch.deleteRow(columnFamily, rowKey);
+				}
+
+				@Override
+				public void execute(ConsistencyLevel cLevel) throws Exception {
+					if (failing) {
+						if (beforeFailure != null)
+							beforeFailure.run();
+						throw new IllegalStateException("storage unavailable");
+					}
+					batch.execute(cLevel);
+					columnMutationCount += mutationCount;
+				}
+			};
+		}
+	}
+}
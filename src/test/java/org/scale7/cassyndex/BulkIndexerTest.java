@@ -0,0 +1,170 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class BulkIndexerTest extends TestCase {
+
+	private static final byte[] POISON = "poison".getBytes(KeyIndexBase.UTF8);
+
+	private PoisonStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		storage = new PoisonStorage();
+	}
+
+	public void testFailingItemRetriedAlone() throws Exception {
+		FullTextIndex index = createIndex(20);
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int n=0; n<50; n++)
+			items.put("item" + n, n == 17 ? "alpha poison" : "alpha beta");
+		final AtomicInteger lastProcessedCount = new AtomicInteger();
+		final List<String> failedIds = Collections.synchronizedList(new ArrayList<String>());
+		Map<String, Exception> failures = index.addItems(items, new IBulkIndexListener() {
+			@Override
+			public void itemsProcessed(int processedCount, int totalCount) {
+				assertEquals(50, totalCount);
+				synchronized (lastProcessedCount) {
+					lastProcessedCount.set(Math.max(lastProcessedCount.get(), processedCount));
+				}
+			}
+
+			@Override
+			public void itemFailed(String itemId, Exception ex) {
+				failedIds.add(itemId);
+			}
+		}, ConsistencyLevel.ONE);
+
+		assertEquals(Collections.singleton("item17"), failures.keySet());
+		assertEquals(Arrays.asList("item17"), failedIds);
+		assertEquals(50, lastProcessedCount.get());
+		// The items sharing a batch with the failing item were written when retried on their own
+		Set<String> expected = new HashSet<String>(items.keySet());
+		expected.remove("item17");
+		assertEquals(expected, find(index, "alpha"));
+		assertEquals(Collections.<String>emptySet(), find(index, "poison"));
+	}
+
+	public void testInvalidItemIdsReported() throws Exception {
+		FullTextIndex index = createIndex(20);
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		items.put("item1", "alpha");
+		items.put("Item2", "alpha");
+		Map<String, Exception> failures = index.addItems(items, ConsistencyLevel.ONE);
+		assertEquals(Collections.singleton("Item2"), failures.keySet());
+		assertEquals(Collections.singleton("item1"), find(index, "alpha"));
+	}
+
+	public void testBatchesHoldWholeItems() throws Exception {
+		FullTextIndex index = createIndex(10);
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		// Three words make three terms and two word pairs, which with the stored text is six mutations
+		for (int n=0; n<40; n++)
+			items.put("item" + n, "red" + (100 + n) + " green" + (100 + n) + " blue" + (100 + n));
+		assertEquals(0, index.addItems(items, ConsistencyLevel.ONE).size());
+		assertEquals(40, storage.batchSizes.size());
+		for (int batchSize : storage.batchSizes)
+			assertEquals(6, batchSize);
+		for (int n=0; n<40; n++)
+			assertEquals(Collections.singleton("item" + n), find(index, "green" + (100 + n)));
+	}
+
+	public void testLargeItemSplitAcrossBatches() throws Exception {
+		FullTextIndex index = createIndex(10);
+		StringBuilder text = new StringBuilder();
+		for (int w=0; w<30; w++)
+			text.append("word").append(w).append(' ');
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		items.put("small", "word0");
+		items.put("large", text.toString());
+		assertEquals(0, index.addItems(items, ConsistencyLevel.ONE).size());
+		for (int batchSize : storage.batchSizes)
+			assertTrue(batchSize <= 10);
+		assertEquals(new HashSet<String>(Arrays.asList("small", "large")), find(index, "word0"));
+		assertEquals(Collections.singleton("large"), find(index, "word29"));
+
+		// Only the last batch of an item writes its text, so a failure there reports the item as failed
+		items.clear();
+		items.put("large", text + "poison");
+		assertEquals(Collections.singleton("large"), index.addItems(items, ConsistencyLevel.ONE).keySet());
+		assertEquals(text.toString(), index.itemIdsToText(new String[] { "large" }, 1, ConsistencyLevel.ONE)[0]);
+	}
+
+	private FullTextIndex createIndex(int maxBatchSize) throws Exception {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		config.setMaxBatchSize(maxBatchSize);
+		config.setMaxMultigetRows(7);
+		config.setMaxInFlightBatches(2);
+		return new FullTextIndex(storage, config);
+	}
+
+	private static Set<String> find(FullTextIndex index, String searchText) throws Exception {
+		return new HashSet<String>(Arrays.asList(index.findItems(searchText, Integer.MAX_VALUE, ConsistencyLevel.ONE)));
+	}
+
+	/**
+	 * Memory storage that fails batches writing a value containing the word poison, and records the number of
+	 * column mutations in each batch executed.
+	 */
+	private static class PoisonStorage extends MemoryStorage {
+		final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+		@Override
+		public IStorageBatch createBatch() {
+			final IStorageBatch batch = super.createBatch();
+			return new IStorageBatch() {
+				int mutationCount;
+				boolean poisoned;
+
+				@Override
+				public void writeColumn(String columnFamily, String rowKey, byte[] colName, byte[] value) {
+					batch.writeColumn(columnFamily, rowKey, colName, value);
+					mutationCount++;
+					poisoned |= contains(value, POISON);
+				}
+
+				@Override
+				public void deleteColumn(String columnFamily, String rowKey, byte[] colName) {
+					batch.deleteColumn(columnFamily, rowKey, colName);
+					mutationCount++;
+				}
+
+				@Override
+				public void deleteRow(String columnFamily, String rowKey) {
+					batch.deleteRow(columnFamily, rowKey);
+				}
+
+				@Override
+				public void execute(ConsistencyLevel cLevel) throws Exception {
+					if (poisoned)
+						throw new IllegalStateException("poisoned batch");
+					batch.execute(cLevel);
+					batchSizes.add(mutationCount);
+				}
+			};
+		}
+
+		private static boolean contains(byte[] value, byte[] part) {
+			for (int i=0; i + part.length <= value.length; i++) {
+				int j = 0;
+				while (j < part.length && value[i + j] == part[j])
+					j++;
+				if (j == part.length)
+					return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.scale7.cassyndex;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class CountItemsTest extends TestCase {
+
+	private static final String[] WORDS = { "red", "green", "blue", "bluish", "cyan", "grey" };
+
+	public void testCountsMatchFindItems() throws Exception {
+		Random random = new Random(6);
+		Map<String, String> items = createItems(random, 300);
+		for (boolean binaryPostings : new boolean[] { false, true }) {
+			for (int maxPlannedCandidates : new int[] { 0, 1000 }) {
+				FullTextIndex index = createIndex(new CountingStorage(), binaryPostings, maxPlannedCandidates);
+				index.addItems(items, ConsistencyLevel.ONE);
+				for (int q=0; q<50; q++) {
+					String searchText = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)].substring(0, 3);
+					int found = index.findItems(searchText, Integer.MAX_VALUE, ConsistencyLevel.ONE).length;
+					assertEquals(searchText, found, index.countItems(searchText, ConsistencyLevel.ONE));
+					ItemCount exact = index.countItems(searchText, found + 1, ConsistencyLevel.ONE);
+					assertEquals(searchText, found, exact.getCount());
+					assertFalse(exact.isLowerBound());
+					if (found > 0) {
+						ItemCount bounded = index.countItems(searchText, found, ConsistencyLevel.ONE);
+						assertEquals(searchText, found, bounded.getCount());
+						assertTrue(bounded.isLowerBound());
+					}
+				}
+			}
+		}
+	}
+
+	public void testThresholdStopsScan() throws Exception {
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int n=0; n<500; n++)
+			items.put("item" + n, "red green");
+		for (int maxPlannedCandidates : new int[] { 0, 1000 }) {
+			CountingStorage storage = new CountingStorage();
+			FullTextIndex index = createIndex(storage, false, maxPlannedCandidates);
+			index.addItems(items, ConsistencyLevel.ONE);
+
+			storage.sliceCount.set(0);
+			ItemCount all = index.countItems("red green", Integer.MAX_VALUE, ConsistencyLevel.ONE);
+			assertEquals(500, all.getCount());
+			assertEquals("500", all.toString());
+			int allSlices = storage.sliceCount.get();
+
+			storage.sliceCount.set(0);
+			ItemCount bounded = index.countItems("red green", 20, ConsistencyLevel.ONE);
+			assertEquals(20, bounded.getCount());
+			assertTrue(bounded.isLowerBound());
+			assertEquals("20+", bounded.toString());
+			// The terms are scanned in parallel, so how far each gets before the scans are cancelled varies
+			assertTrue(storage.sliceCount.get() < allSlices);
+		}
+	}
+
+	public void testThresholdMustBePositive() throws Exception {
+		FullTextIndex index = createIndex(new CountingStorage(), false, 0);
+		try {
+			index.countItems("red", 0, ConsistencyLevel.ONE);
+			fail("Threshold accepted");
+		} catch (IllegalArgumentException ex) {
+		}
+	}
+
+	private static FullTextIndex createIndex(IIndexStorage storage, boolean binaryPostings, int maxPlannedCandidates) {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		config.setBinaryPostings(binaryPostings);
+		config.setStoreTermLists(true);
+		config.setMaxPlannedCandidates(maxPlannedCandidates);
+		config.setMatchTermPageSize(10);
+		return new FullTextIndex(storage, config);
+	}
+
+	private static Map<String, String> createItems(Random random, int itemCount) {
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int n=0; n<itemCount; n++) {
+			StringBuilder text = new StringBuilder();
+			int wordCount = 1 + random.nextInt(3);
+			for (int i=0; i<wordCount; i++)
+				text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			items.put("item" + n, text.toString());
+		}
+		return items;
+	}
+
+	/**
+	 * Memory storage counting the slices read.
+	 */
+	private static class CountingStorage extends MemoryStorage {
+		final AtomicInteger sliceCount = new AtomicInteger();
+
+		@Override
+		public List<Column> getSlice(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxCount, ConsistencyLevel cLevel) {
+			sliceCount.incrementAndGet();
+			return super.getSlice(columnFamily, rowKey, startColName, stopColName, reversed, maxCount, cLevel);
+		}
+	}
+}
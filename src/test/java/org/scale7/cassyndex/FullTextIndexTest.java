@@ -0,0 +1,96 @@
+package org.scale7.cassyndex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class FullTextIndexTest extends TestCase {
+
+	private static final String[] WORDS = { "alpha", "alpine", "alp", "beta", "better", "gamma", "game", "delta", "del", "élan" };
+
+	public void testUpdateRemovesStaleTerms() throws Exception {
+		for (boolean storeTermLists : new boolean[] { false, true }) {
+			for (boolean binaryPostings : new boolean[] { false, true }) {
+				FullTextIndex.Config config = new FullTextIndex.Config("cf");
+				config.setStoreTermLists(storeTermLists);
+				config.setBinaryPostings(binaryPostings);
+				MemoryStorage storage = new MemoryStorage();
+				FullTextIndex index = new FullTextIndex(storage, config);
+
+				index.addItem("item", "the cat sat on the mat", ConsistencyLevel.ONE);
+				index.addItem("other", "a cat", ConsistencyLevel.ONE);
+				index.addItem("item", "the dog sat", ConsistencyLevel.ONE);
+
+				assertEquals(Collections.singleton("other"), find(index, "cat"));
+				assertEquals(Collections.<String>emptySet(), find(index, "mat"));
+				assertEquals(Collections.<String>emptySet(), find(index, "cat sat"));
+				assertEquals(Collections.singleton("item"), find(index, "dog sat"));
+				assertEquals(Collections.singleton("item"), find(index, "the"));
+
+				// Re-adding the same text, and then removing the item, leaves only the other item's postings
+				index.addItem("item", "the dog sat", ConsistencyLevel.ONE);
+				assertEquals(Collections.singleton("item"), find(index, "dog"));
+				index.removeItem("item", ConsistencyLevel.ONE);
+				assertEquals(Collections.<String>emptySet(), find(index, "sat"));
+
+				// A fresh index over the same storage sees the same postings
+				FullTextIndex reopened = new FullTextIndex(storage, config);
+				assertEquals(Collections.singleton("other"), find(reopened, "cat"));
+				assertEquals(Collections.<String>emptySet(), find(reopened, "dog"));
+			}
+		}
+	}
+
+	public void testUpdatedItemsMatchFreshIndex() throws Exception {
+		Random random = new Random(11);
+		FullTextIndex updated = new FullTextIndex(new MemoryStorage(), new FullTextIndex.Config("cf"));
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int n=0; n<200; n++)
+			items.put("item" + n, getRandomText(random, 5));
+		updated.addItems(items, ConsistencyLevel.ONE);
+		for (int n=0; n<100; n++) {
+			String itemId = "item" + random.nextInt(200);
+			String text = getRandomText(random, 3);
+			updated.addItem(itemId, text, ConsistencyLevel.ONE);
+			items.put(itemId, text);
+		}
+
+		FullTextIndex fresh = new FullTextIndex(new MemoryStorage(), new FullTextIndex.Config("cf"));
+		fresh.addItems(items, ConsistencyLevel.ONE);
+		for (int q=0; q<100; q++) {
+			String searchText = getRandomSearchText(random);
+			assertEquals(searchText, find(fresh, searchText), find(updated, searchText));
+		}
+	}
+
+	private static Set<String> find(FullTextIndex index, String searchText) throws Exception {
+		return new HashSet<String>(Arrays.asList(index.findItems(searchText, Integer.MAX_VALUE, ConsistencyLevel.ONE)));
+	}
+
+	private static String getRandomText(Random random, int maxWords) {
+		StringBuilder text = new StringBuilder();
+		int wordCount = 1 + random.nextInt(maxWords);
+		for (int i=0; i<wordCount; i++)
+			text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		return text.toString();
+	}
+
+	// Search text of one to three words, each cut short at random so that longer terms also match
+	private static String getRandomSearchText(Random random) {
+		StringBuilder text = new StringBuilder();
+		int wordCount = 1 + random.nextInt(3);
+		for (int i=0; i<wordCount; i++) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			text.append(word.substring(0, Math.min(word.length(), 2 + random.nextInt(word.length())))).append(' ');
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,115 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class ItemScoreAccumulatorTest extends TestCase {
+
+	public void testStrongestFirstThenItemIdOrder() {
+		ItemScoreAccumulator matches = new ItemScoreAccumulator(2, 1);
+		String[] itemIds = { "e", "c", "a", "d", "b" };
+		for (String itemId : itemIds)
+			matches.addMatch(itemId, 0, 0, 2, true);
+		matches.addMatch("d", 0, 1, 1, false);
+		// Only the strongest match against a term counts
+		matches.addMatch("c", 0, 0, 1, true);
+		matches.addMatch("e", 0, 0, 4, true);
+		assertEquals(Arrays.asList("e", "d", "a", "b", "c"), Arrays.asList(matches.getTopItems(10)));
+		// Ties at the cut off keep the lowest ids
+		assertEquals(Arrays.asList("e", "d", "a"), Arrays.asList(matches.getTopItems(3)));
+	}
+
+	public void testRequiredWordTermHits() {
+		ItemScoreAccumulator matches = new ItemScoreAccumulator(3, 2);
+		matches.addMatch("a", 0, 0, 4, true);
+		matches.addMatch("a", 0, 2, 2, false);
+		matches.addMatch("b", 0, 0, 2, true);
+		matches.addMatch("b", 0, 1, 2, true);
+		assertEquals(2, matches.getItemCount());
+		assertEquals(1, matches.getMatchingItemCount());
+		assertEquals(Arrays.asList("b"), Arrays.asList(matches.getTopItems(10)));
+	}
+
+	public void testBinaryAndStringIdsShareOneOrder() {
+		Random random = new Random(5);
+		List<String> itemIds = new ArrayList<String>();
+		for (int i=0; i<20; i++)
+			itemIds.add(new UUID(random.nextLong(), random.nextLong()).toString());
+		for (int i=0; i<20; i++)
+			itemIds.add("item" + random.nextInt(1000) + (i % 3 == 0 ? "\uD83D\uDE00" : (i % 3 == 1 ? "\uFF41" : "")));
+		// Items arrive both from binary postings and by id, as when candidates are scored from their term lists
+		ItemScoreAccumulator matches = new ItemScoreAccumulator(1, 1, PostingCodec.ITEM_ID_ORDER);
+		for (int i=0; i<itemIds.size(); i++) {
+			String itemId = itemIds.get(i);
+			if (i % 2 == 0) {
+				byte[] posting = PostingCodec.encode("term", itemId);
+				matches.addMatch(posting, PostingCodec.getTermLength(posting) + 1, 0, 2, true);
+			} else {
+				matches.addMatch(itemId, 0, 0, 2, true);
+			}
+		}
+		List<String> expected = new ArrayList<String>(itemIds);
+		Collections.sort(expected, PostingCodec.ITEM_ID_ORDER);
+		assertEquals(expected, Arrays.asList(matches.getTopItems(itemIds.size())));
+	}
+
+	public void testItemIdOrderMatchesPostingOrder() {
+		Random random = new Random(3);
+		String chars = "a0-\u00E9\uFF41\uD83D\uDE00";
+		for (int n=0; n<2000; n++) {
+			String itemId1 = random.nextInt(4) == 0 ? UUID.randomUUID().toString() : getRandomId(random, chars);
+			String itemId2 = random.nextInt(4) == 0 ? UUID.randomUUID().toString() : getRandomId(random, chars);
+			byte[] posting1 = PostingCodec.encode("t", itemId1);
+			byte[] posting2 = PostingCodec.encode("t", itemId2);
+			assertEquals(itemId1 + " " + itemId2, Integer.signum(KeyIndexBase.compareColumnNames(posting1, posting2)),
+				Integer.signum(PostingCodec.ITEM_ID_ORDER.compare(itemId1, itemId2)));
+		}
+	}
+
+	public void testFindItemsOrderIndependentOfPlanning() throws Exception {
+		Random random = new Random(8);
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int n=0; n<300; n++) {
+			String itemId = n % 2 == 0 ? new UUID(random.nextLong(), random.nextLong()).toString() : "item" + n;
+			items.put(itemId, random.nextBoolean() ? "red apple" : "red apples pie");
+		}
+		for (boolean binaryPostings : new boolean[] { false, true }) {
+			String[][] results = new String[2][];
+			for (int plan=0; plan<2; plan++) {
+				FullTextIndex.Config config = new FullTextIndex.Config("cf");
+				config.setBinaryPostings(binaryPostings);
+				config.setStoreTermLists(true);
+				config.setMaxPlannedCandidates(plan == 0 ? 0 : 1000);
+				FullTextIndex index = new FullTextIndex(new MemoryStorage(), config);
+				index.addItems(items, ConsistencyLevel.ONE);
+				results[plan] = index.findItems("red apple", 1000, ConsistencyLevel.ONE);
+			}
+			assertEquals(items.size(), results[0].length);
+			assertEquals(Arrays.asList(results[0]), Arrays.asList(results[1]));
+		}
+	}
+
+	private static String getRandomId(Random random, String chars) {
+		StringBuilder itemId = new StringBuilder();
+		int length = 1 + random.nextInt(4);
+		for (int i=0; i<length; i++) {
+			int c = random.nextInt(chars.length() - 1);
+			// Keep surrogate pairs together
+			if (Character.isHighSurrogate(chars.charAt(c)))
+				itemId.append(chars, c, c + 2);
+			else if (!Character.isLowSurrogate(chars.charAt(c)))
+				itemId.append(chars.charAt(c));
+		}
+		return itemId.toString();
+	}
+}
@@ -0,0 +1,112 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * Checks that keys spread over the rows of sharded buckets are merged back into a single ordered stream.
+ */
+public class KeyIndexBucketTest extends TestCase {
+
+	private static final int KEY_COUNT = 500;
+
+	private MemoryStorage storage;
+	private TreeSet<String> keys;
+
+	@Override
+	protected void setUp() throws Exception {
+		storage = new MemoryStorage();
+		keys = new TreeSet<String>();
+		Random random = new Random(7);
+		String chars = "abcdé";
+		while (keys.size() < KEY_COUNT) {
+			StringBuilder key = new StringBuilder();
+			int length = 3 + random.nextInt(5);
+			for (int i=0; i<length; i++)
+				key.append(chars.charAt(random.nextInt(chars.length())));
+			keys.add(key.toString());
+		}
+	}
+
+	public void testForwardIteration() throws Exception {
+		for (int bucketCount : new int[] { 1, 4 }) {
+			for (int prefetchDepth : new int[] { 0, 2 }) {
+				IKeyIndex index = createIndex(bucketCount, prefetchDepth);
+				assertEquals(getKeysWithPrefix("ab", false), iterate(index, "ab", false, 7));
+				assertEquals(getKeysWithPrefix("abc", false), iterate(index, "abc", false, 3));
+			}
+		}
+	}
+
+	public void testReversedIteration() throws Exception {
+		for (int bucketCount : new int[] { 1, 4 }) {
+			for (int prefetchDepth : new int[] { 0, 2 }) {
+				IKeyIndex index = createIndex(bucketCount, prefetchDepth);
+				assertEquals(getKeysWithPrefix("ab", true), iterate(index, "ab", true, 7));
+				assertEquals(getKeysWithPrefix("abc", true), iterate(index, "abc", true, 3));
+			}
+		}
+	}
+
+	public void testPagesFollowCursors() throws Exception {
+		IKeyIndex index = createIndex(4, 0);
+		for (boolean reversed : new boolean[] { false, true }) {
+			List<String> read = new ArrayList<String>();
+			KeyPage page = index.getKeyPage("bc", null, false, reversed, 11, ConsistencyLevel.ONE);
+			read.addAll(Arrays.asList(page.getKeys()));
+			while (page.getCursor() != null) {
+				page = index.getNextPage(page.getCursor(), 11, ConsistencyLevel.ONE);
+				assertTrue(page.getKeys().length <= 11);
+				read.addAll(Arrays.asList(page.getKeys()));
+			}
+			assertEquals(getKeysWithPrefix("bc", reversed), read);
+		}
+	}
+
+	public void testDeletedKeysNotIterated() throws Exception {
+		IKeyIndex index = createIndex(4, 0);
+		List<String> deleted = new ArrayList<String>();
+		for (String key : keys)
+			if (key.hashCode() % 3 == 0)
+				deleted.add(key);
+		index.deleteKeys(deleted, ConsistencyLevel.ONE);
+		keys.removeAll(deleted);
+		assertEquals(getKeysWithPrefix("cd", false), iterate(index, "cd", false, 5));
+	}
+
+	private IKeyIndex createIndex(int bucketCount, int prefetchDepth) throws Exception {
+		storage.clear();
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf", 2);
+		config.setBucketCount(bucketCount);
+		config.setPrefetchDepth(prefetchDepth);
+		IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, config);
+		index.writeKeys(keys, ConsistencyLevel.ONE);
+		return index;
+	}
+
+	private List<String> getKeysWithPrefix(String prefix, boolean reversed) {
+		List<String> result = new ArrayList<String>();
+		for (String key : keys)
+			if (key.startsWith(prefix))
+				result.add(key);
+		if (reversed)
+			Collections.reverse(result);
+		return result;
+	}
+
+	private static List<String> iterate(IKeyIndex index, String prefix, boolean reversed, int maxPageSize) throws Exception {
+		List<String> result = new ArrayList<String>();
+		IKeyIterator iterator = index.getIterator(prefix, reversed, maxPageSize, ConsistencyLevel.ONE);
+		while (iterator.hasNext())
+			result.addAll(Arrays.asList(iterator.next()));
+		return result;
+	}
+}
@@ -0,0 +1,72 @@
+package org.scale7.cassyndex;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class KeyPageTest extends TestCase {
+
+	public void testCursorRoundTrip() {
+		byte[] lastColName = new byte[] { 'a', 'b', (byte)0xFF, 0, (byte)0x80 };
+		for (String prefix : new String[] { "", "ab", "héllo", repeat('x', 200) }) {
+			for (boolean reversed : new boolean[] { false, true }) {
+				String encoded = new KeyPage.Cursor(prefix, reversed, lastColName).encode();
+				KeyPage.Cursor decoded = KeyPage.Cursor.decode(encoded);
+				assertEquals(prefix, decoded.colPrefix);
+				assertEquals(reversed, decoded.reversed);
+				assertTrue(Arrays.equals(lastColName, decoded.lastColName));
+			}
+		}
+	}
+
+	public void testCursorIsUrlSafe() {
+		byte[] lastColName = new byte[256];
+		for (int i=0; i<lastColName.length; i++)
+			lastColName[i] = (byte)i;
+		String encoded = new KeyPage.Cursor("prefix", false, lastColName).encode();
+		assertTrue(encoded, encoded.matches("[A-Za-z0-9_-]*"));
+	}
+
+	public void testMalformedCursorsRejected() {
+		String valid = new KeyPage.Cursor("ab", false, new byte[] { 'a', 'b', 'c' }).encode();
+		assertRejected(valid + "!");
+		assertRejected(valid.substring(0, valid.length() - 3) + "=");
+		assertRejected("A");
+		assertRejected("");
+		// Wrong format version
+		assertRejected(encode(new byte[] { 2, 0, 0 }));
+		// Prefix length beyond the end of the cursor
+		assertRejected(encode(new byte[] { 1, 0, 5, 'a', 'b' }));
+		// Prefix length varint that never terminates
+		assertRejected(encode(new byte[] { 1, 0, (byte)0x80, (byte)0x80 }));
+	}
+
+	public void testOverflowingPrefixLengthRejected() {
+		// A five byte varint whose last byte sets the sign bit would decode to a negative prefix length
+		assertRejected(encode(new byte[] { 1, 0, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F, 'a' }));
+		assertRejected(encode(new byte[] { 1, 0, (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, 0x08, 'a' }));
+		// Six byte varints are never written
+		assertRejected(encode(new byte[] { 1, 0, (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, 0, 'a' }));
+	}
+
+	private static void assertRejected(String cursor) {
+		try {
+			KeyPage.Cursor.decode(cursor);
+			fail("Cursor accepted: " + cursor);
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	// Encode raw cursor bytes in the cursor's base64 alphabet. A cursor with an empty prefix holds the column name
+	// after three header bytes, which encode to exactly four characters, so the rest encodes the column name alone
+	private static String encode(byte[] bytes) {
+		return new KeyPage.Cursor("", false, bytes).encode().substring(4);
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,118 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class KeysExistTest extends TestCase {
+
+	private CountingStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		storage = new CountingStorage();
+	}
+
+	public void testMatchesKeyExists() throws Exception {
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf", 2);
+		config.setBucketCount(4);
+		IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, config);
+		Random random = new Random(4);
+		List<String> written = new ArrayList<String>();
+		List<String> queried = new ArrayList<String>();
+		for (int n=0; n<2000; n++) {
+			String key = getRandomKey(random);
+			if (random.nextBoolean())
+				written.add(key);
+			queried.add(key);
+		}
+		index.writeKeys(written, ConsistencyLevel.ONE);
+
+		Set<String> expected = new HashSet<String>();
+		for (String key : queried)
+			if (index.keyExists(key, ConsistencyLevel.ONE))
+				expected.add(key);
+		assertEquals(new HashSet<String>(written), expected);
+		storage.namedColumnReads.set(0);
+		assertEquals(expected, index.keysExist(queried, ConsistencyLevel.ONE));
+		// Each bucket row is read once, however many of its keys are asked for
+		assertEquals(getRowCount(queried, 4), storage.namedColumnReads.get());
+	}
+
+	public void testNoKeys() throws Exception {
+		IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, new KeyIndexBase.Config("cf"));
+		assertEquals(Collections.<String>emptySet(), index.keysExist(Collections.<String>emptyList(), ConsistencyLevel.ONE));
+		assertEquals(0, storage.namedColumnReads.get());
+	}
+
+	public void testShortKeyRejected() throws Exception {
+		IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, new KeyIndexBase.Config("cf", 2));
+		try {
+			index.keysExist(Arrays.asList("apple", "a"), ConsistencyLevel.ONE);
+			fail("Short key accepted");
+		} catch (Exception ex) {
+		}
+	}
+
+	public void testCaseInsensitiveKeysReturnedAsGiven() throws Exception {
+		for (boolean fullCaseKeys : new boolean[] { false, true }) {
+			storage.clear();
+			CaseInsKeyIndex.Config config = new CaseInsKeyIndex.Config("cf");
+			config.setFullCaseKeys(fullCaseKeys);
+			config.setBucketCount(4);
+			IKeyIndex index = Cassyndex.createCisKeyOnlyIndex(storage, config);
+			index.writeKeys(Arrays.asList("Apple", "PEAR"), ConsistencyLevel.ONE);
+
+			Set<String> found = index.keysExist(Arrays.asList("apple", "APPLE", "Apple", "Pear", "plum"), ConsistencyLevel.ONE);
+			assertEquals(new HashSet<String>(Arrays.asList("apple", "APPLE", "Apple", "Pear")), found);
+			assertTrue(index.keyExists("aPPLE", ConsistencyLevel.ONE));
+			assertFalse(index.keyExists("Plum", ConsistencyLevel.ONE));
+
+			index.deleteKey("APPLE", ConsistencyLevel.ONE);
+			assertEquals(Collections.singleton("pear"), index.keysExist(Arrays.asList("apple", "pear"), ConsistencyLevel.ONE));
+		}
+	}
+
+	private static String getRandomKey(Random random) {
+		String chars = "abcdefgh";
+		StringBuilder key = new StringBuilder();
+		int length = 2 + random.nextInt(4);
+		for (int i=0; i<length; i++)
+			key.append(chars.charAt(random.nextInt(chars.length())));
+		return key.toString();
+	}
+
+	private int getRowCount(List<String> keys, int bucketCount) {
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf", 2);
+		config.setBucketCount(bucketCount);
+		CaseSenKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, config);
+		Set<String> rowKeys = new HashSet<String>();
+		for (String key : keys)
+			rowKeys.add(index.getKeyRowKey(key));
+		return rowKeys.size();
+	}
+
+	/**
+	 * Memory storage counting the rows read by named column requests.
+	 */
+	private static class CountingStorage extends MemoryStorage {
+		final AtomicInteger namedColumnReads = new AtomicInteger();
+
+		@Override
+		public Map<String, List<Column>> getNamedColumns(String columnFamily, List<String> rowKeys, List<byte[]> colNames, ConsistencyLevel cLevel) {
+			namedColumnReads.addAndGet(rowKeys.size());
+			return super.getNamedColumns(columnFamily, rowKeys, colNames, cLevel);
+		}
+	}
+}
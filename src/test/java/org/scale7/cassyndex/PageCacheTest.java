@@ -0,0 +1,156 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class PageCacheTest extends TestCase {
+
+	private static final byte[] START = "a".getBytes(KeyIndexBase.UTF8);
+	private static final byte[] STOP = "z".getBytes(KeyIndexBase.UTF8);
+
+	public void testPagesCachedUntilRowInvalidated() {
+		PageCache cache = new PageCache(1 << 20, 60000);
+		assertNull(cache.get("cf", "row1", START, STOP, false, 10));
+		cache.put("cf", "row1", cache.getRowGeneration("cf", "row1"), START, STOP, false, 10, createColumns("a1", "a2"));
+		cache.put("cf", "row2", cache.getRowGeneration("cf", "row2"), START, STOP, false, 10, createColumns("b1"));
+		assertEquals(2, cache.get("cf", "row1", START, STOP, false, 10).size());
+		// Pages are only found by the exact slice they were read with
+		assertNull(cache.get("cf", "row1", START, STOP, true, 10));
+		assertNull(cache.get("cf", "row1", START, STOP, false, 11));
+		assertNull(cache.get("other", "row1", START, STOP, false, 10));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(4, cache.getMissCount());
+
+		cache.invalidateRow("cf", "row1");
+		assertNull(cache.get("cf", "row1", START, STOP, false, 10));
+		assertEquals(1, cache.get("cf", "row2", START, STOP, false, 10).size());
+		assertEquals(1, cache.getPageCount());
+	}
+
+	public void testPageReadBeforeInvalidationNotCached() {
+		PageCache cache = new PageCache(1 << 20, 60000);
+		long generation = cache.getRowGeneration("cf", "row");
+		// The row is written while the page is being read, so the page read may hold the old columns
+		cache.invalidateRow("cf", "row");
+		List<Column> columns = cache.put("cf", "row", generation, START, STOP, false, 10, createColumns("a1"));
+		assertEquals(1, columns.size());
+		assertNull(cache.get("cf", "row", START, STOP, false, 10));
+
+		// A page read after the invalidation is cached
+		cache.put("cf", "row", cache.getRowGeneration("cf", "row"), START, STOP, false, 10, createColumns("a1", "a2"));
+		assertEquals(2, cache.get("cf", "row", START, STOP, false, 10).size());
+	}
+
+	public void testLeastRecentlyUsedEvicted() {
+		List<Column> columns = createColumns("a1", "a2", "a3");
+		PageCache probe = new PageCache(1 << 20, 60000);
+		probe.put("cf", "row0", 0, START, STOP, false, 10, columns);
+		long pageSizeBytes = probe.getSizeBytes();
+
+		PageCache cache = new PageCache(3 * pageSizeBytes, 60000);
+		for (int row=0; row<3; row++)
+			cache.put("cf", "row" + row, 0, START, STOP, false, 10, columns);
+		assertNotNull(cache.get("cf", "row0", START, STOP, false, 10));
+		cache.put("cf", "row3", 0, START, STOP, false, 10, columns);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(3, cache.getPageCount());
+		assertTrue(cache.getSizeBytes() <= 3 * pageSizeBytes);
+		assertNotNull(cache.get("cf", "row0", START, STOP, false, 10));
+		assertNull(cache.get("cf", "row1", START, STOP, false, 10));
+
+		// A page larger than the whole cache is returned but not cached
+		PageCache small = new PageCache(pageSizeBytes - 1, 60000);
+		assertEquals(3, small.put("cf", "row0", 0, START, STOP, false, 10, columns).size());
+		assertEquals(0, small.getPageCount());
+		assertEquals(0, small.getSizeBytes());
+	}
+
+	public void testPagesExpire() throws Exception {
+		PageCache cache = new PageCache(1 << 20, 1);
+		cache.put("cf", "row", 0, START, STOP, false, 10, createColumns("a1"));
+		Thread.sleep(10);
+		assertNull(cache.get("cf", "row", START, STOP, false, 10));
+		assertEquals(0, cache.getPageCount());
+	}
+
+	public void testIndexWritesInvalidateCachedPages() throws Exception {
+		CountingStorage storage = new CountingStorage();
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf");
+		config.setPageCache(new PageCache(1 << 20, 60000));
+		IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, config);
+		index.writeKeys(Arrays.asList("apple", "apricot"), ConsistencyLevel.ONE);
+
+		assertEquals(Arrays.asList("apple", "apricot"), getPage(index, "ap"));
+		int reads = storage.sliceCount;
+		assertEquals(Arrays.asList("apple", "apricot"), getPage(index, "ap"));
+		assertEquals(reads, storage.sliceCount);
+
+		index.writeKey("apex", ConsistencyLevel.ONE);
+		assertEquals(Arrays.asList("apex", "apple", "apricot"), getPage(index, "ap"));
+		index.deleteKey("apple", ConsistencyLevel.ONE);
+		assertEquals(Arrays.asList("apex", "apricot"), getPage(index, "ap"));
+	}
+
+	public void testWriteDuringReadNotCached() throws Exception {
+		final CountingStorage storage = new CountingStorage();
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf");
+		config.setPageCache(new PageCache(1 << 20, 60000));
+		final IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(storage, config);
+		index.writeKey("apple", ConsistencyLevel.ONE);
+
+		// The write lands after the slice was read but before the page is cached
+		storage.afterSlice = new Runnable() {
+			@Override
+			public void run() {
+				storage.afterSlice = null;
+				try {
+					index.writeKey("apex", ConsistencyLevel.ONE);
+				} catch (Exception ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		};
+		assertEquals(Arrays.asList("apple"), getPage(index, "ap"));
+		assertEquals(Arrays.asList("apex", "apple"), getPage(index, "ap"));
+	}
+
+	private static List<String> getPage(IKeyIndex index, String prefix) throws Exception {
+		return Arrays.asList(index.getPage(prefix, null, false, false, 10, ConsistencyLevel.ONE));
+	}
+
+	private static List<Column> createColumns(String... names) {
+		List<Column> columns = new ArrayList<Column>();
+		for (String name : names) {
+			Column column = new Column();
+			column.setName(name.getBytes(KeyIndexBase.UTF8));
+			column.setValue(KeyIndexBase.EMPTY_BYTES);
+			column.setTimestamp(0);
+			columns.add(column);
+		}
+		return columns;
+	}
+
+	/**
+	 * Memory storage counting the slices read, which can run a task once a slice has been read.
+	 */
+	private static class CountingStorage extends MemoryStorage {
+		volatile int sliceCount;
+		volatile Runnable afterSlice;
+
+		@Override
+		public List<Column> getSlice(String columnFamily, String rowKey, byte[] startColName, byte[] stopColName, boolean reversed, int maxCount, ConsistencyLevel cLevel) {
+			sliceCount++;
+			List<Column> columns = super.getSlice(columnFamily, rowKey, startColName, stopColName, reversed, maxCount, cLevel);
+			Runnable task = afterSlice;
+			if (task != null)
+				task.run();
+			return columns;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class PostingCodecTest extends TestCase {
+
+	private static final String[] TERMS = { "ca", "cat", "cat dog", "catalog", "cats", "caté", "cb", "dog" };
+
+	public void testUuidItemIdRoundTrip() {
+		String itemId = UUID.randomUUID().toString();
+		byte[] posting = PostingCodec.encode("héllo wörld", itemId);
+		int termLength = PostingCodec.getTermLength(posting);
+		assertEquals("héllo wörld".getBytes(KeyIndexBase.UTF8).length, termLength);
+		// The id is held as its 16 bytes after the terminator and tag
+		assertEquals(termLength + 2 + 16, posting.length);
+		assertEquals(itemId, PostingCodec.decodeItemId(posting, termLength + 1));
+	}
+
+	public void testOtherItemIdRoundTrip() {
+		// Ids that are not canonical lower case UUIDs are held as UTF-8
+		String uuid = UUID.randomUUID().toString();
+		for (String itemId : new String[] { "item-42", "ünïcode", uuid.toUpperCase(), uuid.substring(1), uuid.replace('-', '_') }) {
+			byte[] posting = PostingCodec.encode("abc", itemId);
+			assertEquals(3, PostingCodec.getTermLength(posting));
+			assertEquals(itemId, PostingCodec.decodeItemId(posting, 4));
+		}
+	}
+
+	public void testMalformedPostingHasNoTerm() {
+		assertEquals(-1, PostingCodec.getTermLength("abc".getBytes(KeyIndexBase.UTF8)));
+		assertEquals(-1, PostingCodec.getTermLength(new byte[] { 'a', PostingCodec.TERM_TERMINATOR, 0 }));
+	}
+
+	public void testPrefixRanges() {
+		List<byte[]> postings = new ArrayList<byte[]>();
+		for (String term : TERMS) {
+			postings.add(PostingCodec.encode(term, "item"));
+			postings.add(PostingCodec.encode(term, UUID.randomUUID().toString()));
+		}
+		// The terminator sorts after every character, so the exact postings of a term follow those of longer terms
+		assertEquals(Arrays.asList("cat dog", "catalog", "cats", "caté", "cat"),
+			getTermsInRange(postings, PostingCodec.getPrefixStart("cat"), PostingCodec.getPrefixStop("cat")));
+		assertEquals(Arrays.asList("cat"),
+			getTermsInRange(postings, PostingCodec.getExactStart("cat"), PostingCodec.getPrefixStop("cat")));
+		assertEquals(Arrays.asList("cat dog", "catalog", "cats", "caté"),
+			getTermsInRange(postings, PostingCodec.getPrefixStart("cat"), PostingCodec.getLongerTermsStop("cat")));
+	}
+
+	public void testBinaryPostingsSearch() throws Exception {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		config.setBinaryPostings(true);
+		FullTextIndex index = new FullTextIndex(new MemoryStorage(), config);
+		String uuid = UUID.randomUUID().toString();
+		index.addItem(uuid, "the cat sat", ConsistencyLevel.ONE);
+		index.addItem("item-1", "catalog of cats", ConsistencyLevel.ONE);
+		index.addItem("item-2", "a dog", ConsistencyLevel.ONE);
+
+		assertEquals(new HashSet<String>(Arrays.asList(uuid, "item-1")), toSet(index.findItems("cat", 10, ConsistencyLevel.ONE)));
+		assertEquals(Collections.singleton(uuid), toSet(index.findItems("cat sat", 10, ConsistencyLevel.ONE)));
+		assertEquals(Collections.singleton("item-2"), toSet(index.findItems("dog", 10, ConsistencyLevel.ONE)));
+		// The exact match scores above the longer terms
+		assertEquals(uuid, index.findItems("cat", 10, ConsistencyLevel.ONE)[0]);
+
+		index.removeItem(uuid, ConsistencyLevel.ONE);
+		assertEquals(Collections.singleton("item-1"), toSet(index.findItems("cat", 10, ConsistencyLevel.ONE)));
+	}
+
+	// Sort postings in column order and return the distinct terms of those in a range
+	private static List<String> getTermsInRange(List<byte[]> postings, byte[] start, byte[] stop) {
+		List<byte[]> sorted = new ArrayList<byte[]>(postings);
+		Collections.sort(sorted, new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] posting1, byte[] posting2) {
+				return KeyIndexBase.compareColumnNames(posting1, posting2);
+			}
+		});
+		List<String> terms = new ArrayList<String>();
+		for (byte[] posting : sorted) {
+			if (KeyIndexBase.compareColumnNames(posting, start) < 0 || KeyIndexBase.compareColumnNames(posting, stop) > 0)
+				continue;
+			String term = new String(posting, 0, PostingCodec.getTermLength(posting), KeyIndexBase.UTF8);
+			if (!terms.contains(term))
+				terms.add(term);
+		}
+		return terms;
+	}
+
+	private static HashSet<String> toSet(String[] itemIds) {
+		return new HashSet<String>(Arrays.asList(itemIds));
+	}
+}
@@ -0,0 +1,177 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class PrefetchingPageIteratorTest extends TestCase {
+
+	private ExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	public void testPagesInOrder() throws Exception {
+		CountingSource source = new CountingSource(50, -1);
+		PrefetchingPageIterator<Integer> pages = new PrefetchingPageIterator<Integer>(source, 3, executor);
+		for (int page=0; page<50; page++) {
+			assertTrue(pages.hasNext());
+			assertEquals(page, pages.next().intValue());
+		}
+		assertFalse(pages.hasNext());
+	}
+
+	public void testFailureReachesCaller() throws Exception {
+		CountingSource source = new CountingSource(50, 2);
+		PrefetchingPageIterator<Integer> pages = new PrefetchingPageIterator<Integer>(source, 3, executor);
+		assertEquals(0, pages.next().intValue());
+		assertEquals(1, pages.next().intValue());
+		try {
+			pages.hasNext();
+			fail("Failure not reported");
+		} catch (IllegalStateException ex) {
+			assertEquals("page 2", ex.getMessage());
+		}
+	}
+
+	public void testCloseStopsFetching() throws Exception {
+		CountingSource source = new CountingSource(1000, -1);
+		PrefetchingPageIterator<Integer> pages = new PrefetchingPageIterator<Integer>(source, 2, executor);
+		pages.next();
+		pages.close();
+		source.awaitClosed();
+		int fetched = source.nextCount.get();
+		Thread.sleep(50);
+		assertEquals(fetched, source.nextCount.get());
+		assertTrue(fetched <= 4);
+		assertFalse(pages.hasNext());
+		pages.close();
+		assertEquals(1, source.closeCount.get());
+	}
+
+	public void testCloseCancelsFetchNotStarted() throws Exception {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		Executor queueing = new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				queued.add(task);
+			}
+		};
+		CountingSource source = new CountingSource(10, -1);
+		PrefetchingPageIterator<Integer> pages = new PrefetchingPageIterator<Integer>(source, 2, queueing);
+		assertEquals(1, queued.size());
+		pages.close();
+		assertEquals(1, source.closeCount.get());
+		// The cancelled fetch does nothing if it is run after all
+		queued.get(0).run();
+		assertEquals(0, source.nextCount.get());
+		assertEquals(1, source.closeCount.get());
+	}
+
+	public void testCloseDuringFetchClosesSourceAfterwards() throws Exception {
+		CountingSource source = new CountingSource(10, -1);
+		source.blockNext = new CountDownLatch(1);
+		PrefetchingPageIterator<Integer> pages = new PrefetchingPageIterator<Integer>(source, 2, executor);
+		assertTrue(source.nextStarted.await(5, TimeUnit.SECONDS));
+		pages.close();
+		// The source is still in use by the fetch, so it is closed when the fetch finishes
+		assertEquals(0, source.closeCount.get());
+		source.blockNext.countDown();
+		source.awaitClosed();
+		assertFalse(pages.hasNext());
+		assertEquals(1, source.nextCount.get());
+		assertEquals(1, source.closeCount.get());
+	}
+
+	public void testClosePrefetchingKeyIterator() throws Exception {
+		KeyIndexBase.Config config = new KeyIndexBase.Config("cf", 2);
+		config.setPrefetchDepth(2);
+		IKeyIndex index = Cassyndex.createCsKeyOnlyIndex(new MemoryStorage(), config);
+		List<String> keys = new ArrayList<String>();
+		for (int i=0; i<100; i++)
+			keys.add("key" + i);
+		index.writeKeys(keys, ConsistencyLevel.ONE);
+		IKeyIterator iterator = index.getIterator("ke", false, 10, ConsistencyLevel.ONE);
+		assertTrue(iterator instanceof PrefetchingKeyIterator);
+		assertEquals(10, iterator.next().length);
+		((PrefetchingKeyIterator)iterator).close();
+		assertFalse(iterator.hasNext());
+	}
+
+	public void testCloseSearchIterator() throws Exception {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		config.setPrefetchDepth(2);
+		config.setMatchTermPageSize(5);
+		FullTextIndex index = new FullTextIndex(new MemoryStorage(), config);
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (int n=0; n<100; n++)
+			items.put("item" + n, "alpha beta");
+		index.addItems(items, ConsistencyLevel.ONE);
+		ISearchIterator iterator = index.searchIterator("alpha", ConsistencyLevel.ONE);
+		assertTrue(iterator.hasNext());
+		iterator.next();
+		iterator.close();
+		assertFalse(iterator.hasNext());
+	}
+
+	/**
+	 * Returns numbered pages, counting the pages read and the times it is closed.
+	 */
+	private static class CountingSource implements IPageIterator<Integer> {
+		CountingSource(int pageCount, int failAtPage) {
+			this.pageCount = pageCount;
+			this.failAtPage = failAtPage;
+		}
+		final int pageCount;
+		final int failAtPage;
+		final AtomicInteger nextCount = new AtomicInteger();
+		final AtomicInteger closeCount = new AtomicInteger();
+		final CountDownLatch nextStarted = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		volatile CountDownLatch blockNext;
+
+		@Override
+		public boolean hasNext() {
+			return nextCount.get() < pageCount;
+		}
+
+		@Override
+		public Integer next() throws Exception {
+			nextStarted.countDown();
+			if (blockNext != null)
+				blockNext.await();
+			int page = nextCount.getAndIncrement();
+			if (page == failAtPage)
+				throw new IllegalStateException("page " + page);
+			return page;
+		}
+
+		@Override
+		public void close() {
+			closeCount.incrementAndGet();
+			closed.countDown();
+		}
+
+		void awaitClosed() throws InterruptedException {
+			assertTrue(closed.await(5, TimeUnit.SECONDS));
+		}
+	}
+}
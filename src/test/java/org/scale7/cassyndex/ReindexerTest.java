@@ -0,0 +1,136 @@
+package org.scale7.cassyndex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+public class ReindexerTest extends TestCase {
+
+	private static final int ITEM_COUNT = 60;
+	private static final int SEGMENT_COUNT = 4;
+
+	private FlakyStorage storage;
+	private Map<String, String> items;
+
+	@Override
+	protected void setUp() throws Exception {
+		storage = new FlakyStorage();
+		items = new LinkedHashMap<String, String>();
+		for (int n=0; n<ITEM_COUNT; n++)
+			items.put("item" + n, "cat " + n + " dog");
+		FullTextIndex index = new FullTextIndex(storage, createIndexConfig(null));
+		assertEquals(0, index.addItems(items, ConsistencyLevel.ONE).size());
+	}
+
+	public void testReindexAppliesBlockWords() throws Exception {
+		FullTextIndex index = new FullTextIndex(storage, createIndexConfig(new String[] { "dog" }));
+		Reindexer reindexer = new Reindexer(index, createConfig(null), null, ConsistencyLevel.ONE);
+		assertEquals(0, reindexer.run().size());
+		assertEquals(ITEM_COUNT, reindexer.getScannedCount());
+		assertEquals(ITEM_COUNT, reindexer.getReindexedCount());
+		assertEquals(SEGMENT_COUNT, reindexer.getCompletedSegmentCount());
+
+		// The postings of the block word are gone, even as seen by an index that does not block it
+		FullTextIndex unblocked = new FullTextIndex(storage, createIndexConfig(null));
+		assertEquals(Collections.<String>emptySet(), find(unblocked, "dog"));
+		assertEquals(items.keySet(), find(unblocked, "cat"));
+	}
+
+	public void testResumeFromCheckpoint() throws Exception {
+		FullTextIndex index = new FullTextIndex(storage, createIndexConfig(new String[] { "dog" }));
+		Reindexer.StoredCheckpoint checkpoint = new Reindexer.StoredCheckpoint(index, "job", ConsistencyLevel.ONE);
+		Reindexer reindexer = new Reindexer(index, createConfig(checkpoint), null, ConsistencyLevel.ONE);
+
+		storage.readsBeforeFailure = 7;
+		try {
+			reindexer.run();
+			fail("Failure not reported");
+		} catch (IllegalStateException ex) {
+			assertEquals("storage unavailable", ex.getMessage());
+		}
+		long firstRunCount = reindexer.getReindexedCount();
+		assertTrue(firstRunCount > 0 && firstRunCount < ITEM_COUNT);
+		assertTrue(reindexer.getCompletedSegmentCount() < SEGMENT_COUNT);
+
+		// The second run picks up where the first stopped, so every item is re-indexed exactly once
+		storage.readsBeforeFailure = -1;
+		assertEquals(0, reindexer.run().size());
+		assertEquals(ITEM_COUNT, firstRunCount + reindexer.getReindexedCount());
+		assertEquals(SEGMENT_COUNT, reindexer.getCompletedSegmentCount());
+		assertEquals(items.keySet(), find(index, "cat"));
+
+		// A finished job has nothing left to do until its checkpoint is cleared
+		assertEquals(0, reindexer.run().size());
+		assertEquals(0, reindexer.getReindexedCount());
+		assertEquals(SEGMENT_COUNT, reindexer.getCompletedSegmentCount());
+		checkpoint.clear(SEGMENT_COUNT);
+		reindexer.run();
+		assertEquals(ITEM_COUNT, reindexer.getReindexedCount());
+	}
+
+	public void testOtherPartitionerRefused() throws Exception {
+		FullTextIndex index = new FullTextIndex(storage, createIndexConfig(null));
+		storage.partitioner = "org.apache.cassandra.dht.OrderPreservingPartitioner";
+		Reindexer reindexer = new Reindexer(index, createConfig(null), null, ConsistencyLevel.ONE);
+		try {
+			reindexer.run();
+			fail("Partitioner not checked");
+		} catch (IllegalStateException ex) {
+			assertTrue(ex.getMessage().endsWith(storage.partitioner));
+		}
+		assertEquals(0, storage.readCount);
+	}
+
+	private static FullTextIndex.Config createIndexConfig(String[] blockWords) {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		config.setStoreTermLists(true);
+		if (blockWords != null)
+			config.setBlockWords(blockWords);
+		return config;
+	}
+
+	private static Reindexer.Config createConfig(IReindexCheckpoint checkpoint) {
+		Reindexer.Config config = new Reindexer.Config();
+		config.setSegmentCount(SEGMENT_COUNT);
+		// One segment at a time, so that the reads made before the failure are the same on every run
+		config.setParallelism(1);
+		config.setRowPageSize(5);
+		config.setCheckpoint(checkpoint);
+		return config;
+	}
+
+	private static Set<String> find(FullTextIndex index, String searchText) throws Exception {
+		return new HashSet<String>(Arrays.asList(index.findItems(searchText, Integer.MAX_VALUE, ConsistencyLevel.ONE)));
+	}
+
+	/**
+	 * Memory storage whose token range reads fail after a given number of reads, and whose partitioner can be set.
+	 */
+	private static class FlakyStorage extends MemoryStorage {
+		volatile int readsBeforeFailure = -1;
+		volatile int readCount;
+		volatile String partitioner = RowTokens.PARTITIONER;
+
+		@Override
+		public Map<String, List<Column>> getTokenRange(String columnFamily, String startToken, String endToken, int maxRows, int maxColumns, ConsistencyLevel cLevel) {
+			if (readsBeforeFailure >= 0 && readCount >= readsBeforeFailure)
+				throw new IllegalStateException("storage unavailable");
+			readCount++;
+			return super.getTokenRange(columnFamily, startToken, endToken, maxRows, maxColumns, cLevel);
+		}
+
+		@Override
+		public String getPartitioner() {
+			return partitioner;
+		}
+	}
+}
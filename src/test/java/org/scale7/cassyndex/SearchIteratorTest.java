@@ -0,0 +1,71 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+
+/**
+ * Checks that a search iterator returns the same items as findItems, in the same rank order with ties broken by
+ * item id.
+ */
+public class SearchIteratorTest extends TestCase {
+
+	private static final String[] WORDS = { "alpha", "alpine", "alp", "beta", "better", "gamma", "game", "delta", "del", "élan" };
+
+	public void testMatchesFindItems() throws Exception {
+		for (int maxPlannedCandidates : new int[] { 0, 30 }) {
+			for (boolean binaryPostings : new boolean[] { false, true }) {
+				FullTextIndex.Config config = new FullTextIndex.Config("cf");
+				config.setBucketCount(3);
+				config.setMatchTermPageSize(17);
+				config.setMaxPlannedCandidates(maxPlannedCandidates);
+				config.setStoreTermLists(maxPlannedCandidates > 0);
+				config.setBinaryPostings(binaryPostings);
+				FullTextIndex index = new FullTextIndex(new MemoryStorage(), config);
+				Random random = new Random(9);
+				Map<String, String> items = new LinkedHashMap<String, String>();
+				for (int n=0; n<500; n++)
+					items.put(n % 3 == 0 ? new UUID(random.nextLong(), random.nextLong()).toString() : "item" + n, getRandomText(random, 6));
+				index.addItems(items, ConsistencyLevel.ONE);
+
+				for (int q=0; q<100; q++) {
+					String searchText = getRandomSearchText(random);
+					String[] found = index.findItems(searchText, Integer.MAX_VALUE, ConsistencyLevel.ONE);
+					List<String> iterated = new ArrayList<String>();
+					ISearchIterator iterator = index.searchIterator(searchText, ConsistencyLevel.ONE);
+					while (iterator.hasNext())
+						iterated.addAll(Arrays.asList(iterator.next()));
+					assertEquals(searchText, Arrays.asList(found), iterated);
+					assertEquals(searchText, found.length, index.countItems(searchText, ConsistencyLevel.ONE));
+				}
+			}
+		}
+	}
+
+	private static String getRandomText(Random random, int maxWords) {
+		StringBuilder text = new StringBuilder();
+		int wordCount = 1 + random.nextInt(maxWords);
+		for (int i=0; i<wordCount; i++)
+			text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		return text.toString();
+	}
+
+	// Search text of one to three words, each cut short at random so that longer terms also match
+	private static String getRandomSearchText(Random random) {
+		StringBuilder text = new StringBuilder();
+		int wordCount = 1 + random.nextInt(3);
+		for (int i=0; i<wordCount; i++) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			text.append(word.substring(0, Math.min(word.length(), 2 + random.nextInt(word.length())))).append(' ');
+		}
+		return text.toString();
+	}
+}
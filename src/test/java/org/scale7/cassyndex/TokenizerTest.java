@@ -0,0 +1,82 @@
+package org.scale7.cassyndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+/**
+ * Checks that the tokenizer produces exactly the terms of the Splitter pipeline it replaced, since the terms
+ * determine the keys under which existing items are indexed.
+ */
+public class TokenizerTest extends TestCase {
+
+	// Characters chosen to exercise every separator class, Unicode whitespace, invisible characters, apostrophes,
+	// hyphens and the replacement character that the old word separator pattern held
+	private static final String ALPHABET = "ab -'\u00AD \u00A0\u2003.,;!@\uFFFD_~\tX\n\u200Bz\u00E9 -";
+
+	public void testMatchesSplitterPipeline() {
+		assertMatchesSplitterPipeline(null);
+	}
+
+	public void testMatchesSplitterPipelineWithBlockWords() {
+		assertMatchesSplitterPipeline(new String[] { "a", "the", "b-", "'" });
+	}
+
+	public void testWordPairsDoNotCrossSentences() {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		String[] terms = new Tokenizer().getNormalizedSearchTerms("Exam results. Don't panic", config);
+		assertEquals(Arrays.asList("exam", "results", "exam results", "dont", "panic", "dont panic"), Arrays.asList(terms));
+	}
+
+	private void assertMatchesSplitterPipeline(String[] blockWords) {
+		FullTextIndex.Config config = new FullTextIndex.Config("cf");
+		if (blockWords != null)
+			config.setBlockWords(blockWords);
+		Tokenizer tokenizer = new Tokenizer();
+		Random random = new Random(1);
+		for (int n=0; n<20000; n++) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(20);
+			for (int i=0; i<length; i++)
+				text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			String[] expected = getSplitterTerms(text.toString(), config);
+			String[] actual = tokenizer.getNormalizedSearchTerms(text.toString(), config);
+			assertEquals("Terms of [" + text + "]", Arrays.asList(expected), Arrays.asList(actual));
+		}
+	}
+
+	// The pipeline used before the tokenizer, kept as the reference for its output
+	private static String[] getSplitterTerms(String text, FullTextIndex.Config config) {
+		List<String> result = new ArrayList<String>();
+		Iterable<String> sentences = Splitter
+		.onPattern("[\\!\\(\\)\\{\\}\\=\\[\\]\\;\\:\\|\"\\?/\\<\\>\\.\\,]")
+		.trimResults()
+		.omitEmptyStrings()
+		.split(text);
+		for (String sentence : sentences) {
+			Iterable<String> words = Splitter
+			.onPattern("[\\@\\\uFFFD\\$\\%\\^\\&\\*\\+\\_\\~\\s]")
+			.trimResults()
+			.omitEmptyStrings()
+			.split(sentence);
+			String prevWord = null;
+			for (String word : words) {
+				if (word.equals("-"))
+					continue;
+				word = CharMatcher.INVISIBLE.or(CharMatcher.anyOf("'")).removeFrom(word).toLowerCase();
+				if (!config.isBlockWordPrefix(word))
+					result.add(word);
+				if (prevWord != null)
+					result.add(prevWord + " " + word);
+				prevWord = word;
+			}
+		}
+		return result.toArray(new String[] {});
+	}
+}